@@ -0,0 +1,93 @@
+package com.di.jmeter.benchmarks;
+
+import org.apache.jmeter.util.JMeterUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Generated datasets and JMeter settings shared by the benchmarks.
+ * <p>
+ * The rows only depend on their number, so every run measures the same bytes. Files are generated once in the
+ * directory given by the system property bench.dir (the temporary directory by default) and reused afterwards.
+ */
+final class BenchmarkData {
+
+    static final String HEADER = "id,name,email,amount,weight";
+    static final String VARIABLES = "id,name,email,amount,weight";
+    private static final long SEED = 0x5EEDL;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Loads empty JMeter properties once, the elements and the file server read their settings from them.
+     * The Random Unique order is seeded so the runs draw the same rows.
+     */
+    static synchronized void initJMeter() {
+        if (JMeterUtils.getJMeterProperties() != null) {
+            return;
+        }
+        try {
+            File properties = File.createTempFile("ecsv-bench", ".properties");
+            properties.deleteOnExit();
+            Files.write(properties.toPath(), ("extendedcsv.random.seed=" + SEED + "\n").getBytes(StandardCharsets.UTF_8));
+            JMeterUtils.loadJMeterProperties(properties.getAbsolutePath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param rows - number of data rows, the header line excluded
+     * @return the dataset file, generated on first use
+     */
+    static synchronized File csv(int rows) {
+        File dir = new File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")), "ecsv-bench");
+        File file = new File(dir, "rows-" + rows + ".csv");
+        if (file.isFile()) {
+            return file;
+        }
+        try {
+            Files.createDirectories(dir.toPath());
+            File temp = new File(dir, file.getName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (int i = 0; i < rows; i++) {
+                    writer.write(row(i));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param i - row number
+     * @return the row, a quoted name with an embedded delimiter every 8 rows
+     */
+    static String row(int i) {
+        SplittableRandom random = new SplittableRandom(SEED ^ i);
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(i).append(',');
+        if ((i & 7) == 0) {
+            sb.append("\"user ").append(i).append(", jr\"");
+        } else {
+            sb.append("user").append(random.nextInt(1_000_000));
+        }
+        sb.append(",user").append(i).append("@example.com,")
+                .append(random.nextInt(100_000) / 100.0).append(',')
+                .append(1 + random.nextInt(10));
+        return sb.toString();
+    }
+}
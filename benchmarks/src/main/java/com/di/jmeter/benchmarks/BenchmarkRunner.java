@@ -0,0 +1,49 @@
+package com.di.jmeter.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs every benchmark at 1, 8, 64 and 512 threads with the allocation profiler, one JSON result file per
+ * thread count. Any argument is passed to the JMH command line instead, e.g. {@code -t 8 -prof gc TokenizerBenchmark}.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] THREADS = {1, 8, 64, 512};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        for (int threads : THREADS) {
+            Options options = new OptionsBuilder()
+                    .include(RowServingBenchmark.class.getSimpleName())
+                    .include(TokenizerBenchmark.class.getSimpleName())
+                    .include(IterationBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-" + threads + "-threads.json")
+                    .build();
+            new Runner(options).run();
+        }
+        // counting starts a dataset, shared by the whole JVM, it runs single threaded
+        Options rowCount = new OptionsBuilder()
+                .include(RowCountBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-row-count.json")
+                .build();
+        new Runner(rowCount).run();
+    }
+}
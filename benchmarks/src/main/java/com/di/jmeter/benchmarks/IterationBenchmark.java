@@ -0,0 +1,98 @@
+package com.di.jmeter.benchmarks;
+
+import com.di.jmeter.config.ExtendedCsvDataSetConfig;
+import com.di.jmeter.utils.FileServerExtended;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole iteration of the element: next row of the thread, split, and stored in the variables of the thread.
+ * Each benchmark thread stands for a JMeter thread, with its own clone of the element and its own variables
+ * in the thread context, outside of any test plan.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IterationBenchmark {
+
+    @Param({"10000", "1000000", "50000000"})
+    public int rows;
+
+    @Param({"Sequential", "Random", "Unique", "Random Unique"})
+    public String selectRow;
+
+    @Param({"Indexed"})
+    public String storageMode;
+
+    private ExtendedCsvDataSetConfig element;
+
+    @Setup(Level.Trial)
+    public void configure() {
+        BenchmarkData.initJMeter();
+        element = new ExtendedCsvDataSetConfig();
+        element.setName("bench");
+        element.setFilename(BenchmarkData.csv(rows).getAbsolutePath());
+        element.setFileEncoding("UTF-8");
+        element.setVariableNames(BenchmarkData.VARIABLES);
+        element.setIgnoreFirstLine(true);
+        element.setDelimiter(",");
+        element.setQuotedData(true);
+        element.setSelectRow(selectRow);
+        element.setUpdateValue("Each Iteration");
+        element.setOoValue("Continue Cyclic");
+        element.setShareMode("All threads");
+        element.setAutoAllocate(true);
+        element.setAllocate(false);
+        element.setBlockSize("1");
+        element.setStorageMode(storageMode);
+        element.setWeightColumn("");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        FileServerExtended.getFileServer().closeFiles();
+    }
+
+    /**
+     * The clone of the element and the thread context of a JMeter thread.
+     */
+    @State(Scope.Thread)
+    public static class JMeterThread {
+        ExtendedCsvDataSetConfig element;
+        JMeterVariables variables;
+
+        @Setup(Level.Trial)
+        public void start(IterationBenchmark benchmark) {
+            element = (ExtendedCsvDataSetConfig) benchmark.element.clone();
+            variables = new JMeterVariables();
+            JMeterContextService.getContext().setVariables(variables);
+            // the first iteration reserves and indexes the file, outside of the measurement
+            element.iterationStart(null);
+        }
+    }
+
+    @Benchmark
+    public Object iterationStart(JMeterThread thread) {
+        thread.element.iterationStart(null);
+        return thread.variables.getObject("email");
+    }
+}
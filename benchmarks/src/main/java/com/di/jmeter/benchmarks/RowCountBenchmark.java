@@ -0,0 +1,70 @@
+package com.di.jmeter.benchmarks;
+
+import com.di.jmeter.utils.FileServerExtended;
+import com.di.jmeter.utils.RowParser;
+import com.di.jmeter.utils.StorageMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start of a dataset: counting its rows opens its row store, which indexes or loads the whole file.
+ * The file server is shared by the whole JVM and closed after each count, hence a single thread.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class RowCountBenchmark {
+
+    private static final String ALIAS = "bench";
+
+    @Param({"10000", "1000000", "50000000"})
+    public int rows;
+
+    @Param({"Indexed", "Memory Mapped", "Off-Heap"})
+    public String storageMode;
+
+    private FileServerExtended fileServer;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        BenchmarkData.initJMeter();
+        fileServer = FileServerExtended.getFileServer();
+        BenchmarkData.csv(rows);
+    }
+
+    @Setup(Level.Iteration)
+    public void reserve() {
+        fileServer.reserveFile(BenchmarkData.csv(rows).getAbsolutePath(), "UTF-8", ALIAS, true,
+                StorageMode.fromString(storageMode), new RowParser(",", true));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        fileServer.closeFiles();
+    }
+
+    @Benchmark
+    public long calculateRowCount() throws IOException {
+        fileServer.calculateRowCount(ALIAS, true);
+        return fileServer.getDataset(ALIAS).getRowCount();
+    }
+}
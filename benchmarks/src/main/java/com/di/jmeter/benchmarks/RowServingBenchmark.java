@@ -0,0 +1,106 @@
+package com.di.jmeter.benchmarks;
+
+import com.di.jmeter.utils.ChunkLease;
+import com.di.jmeter.utils.FileServerExtended;
+import com.di.jmeter.utils.OutOfValues;
+import com.di.jmeter.utils.RowLease;
+import com.di.jmeter.utils.RowParser;
+import com.di.jmeter.utils.StorageMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows served by the file server to the threads of a test: Sequential, Random and Unique reads of a shared dataset.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowServingBenchmark {
+
+    private static final String ALIAS = "bench";
+
+    @Param({"10000", "1000000", "50000000"})
+    public int rows;
+
+    @Param({"Indexed"})
+    public String storageMode;
+
+    private FileServerExtended fileServer;
+
+    @Setup(Level.Trial)
+    public void reserve() throws IOException {
+        BenchmarkData.initJMeter();
+        fileServer = FileServerExtended.getFileServer();
+        fileServer.reserveFile(BenchmarkData.csv(rows).getAbsolutePath(), "UTF-8", ALIAS, true,
+                StorageMode.fromString(storageMode), new RowParser(",", true));
+        // indexes the file, outside of the measurement
+        fileServer.calculateRowCount(ALIAS, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        fileServer.closeFiles();
+    }
+
+    /**
+     * Cursors owned by a thread, as held by the clone of the element of each thread.
+     */
+    @State(Scope.Thread)
+    public static class Leases {
+        RowLease rowLease;
+        ChunkLease chunkLease;
+
+        @Setup(Level.Trial)
+        public void register(RowServingBenchmark benchmark) throws IOException {
+            rowLease = new RowLease(1);
+            chunkLease = benchmark.fileServer.getDataset(ALIAS).register(64);
+        }
+    }
+
+    @Benchmark
+    public String readLine() throws IOException {
+        return fileServer.readLine(ALIAS, true, true);
+    }
+
+    @Benchmark
+    public String[] readLineValues(Leases leases) throws IOException {
+        return fileServer.readLineValues(ALIAS, true, true, leases.rowLease);
+    }
+
+    @Benchmark
+    public String readRandom() throws IOException {
+        return fileServer.readRandom(ALIAS);
+    }
+
+    @Benchmark
+    public String[] readRandomValues() throws IOException {
+        return fileServer.readRandomValues(ALIAS);
+    }
+
+    @Benchmark
+    public String readUnique(Leases leases) throws IOException {
+        return fileServer.readUnique(ALIAS, leases.chunkLease, OutOfValues.CONTINUE_CYCLIC);
+    }
+
+    @Benchmark
+    public String[] readUniqueValues(Leases leases) throws IOException {
+        return fileServer.readUniqueValues(ALIAS, leases.chunkLease, OutOfValues.CONTINUE_CYCLIC);
+    }
+}
@@ -0,0 +1,79 @@
+package com.di.jmeter.benchmarks;
+
+import com.di.jmeter.utils.FileServerExtended;
+import com.di.jmeter.utils.RowParser;
+import org.apache.jorphan.util.JOrphanUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting of a row into its values: the quoted data tokenizer of the file server, the split of JMeter it replaced
+ * for unquoted data, and the parser used by the row stores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    private static final int LINES = 1024;
+
+    private final String[] lines = new String[LINES];
+    private final RowParser quoted = new RowParser(",", true);
+    private final RowParser plain = new RowParser(",", false);
+    private FileServerExtended fileServer;
+
+    /**
+     * Walks the sample lines, one counter per thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String line(TokenizerBenchmark benchmark) {
+            return benchmark.lines[next++ & (LINES - 1)];
+        }
+    }
+
+    @Setup
+    public void lines() {
+        BenchmarkData.initJMeter();
+        fileServer = FileServerExtended.getFileServer();
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = BenchmarkData.row(i);
+        }
+    }
+
+    @Benchmark
+    public String[] csvReadLine(Cursor cursor) throws IOException {
+        return fileServer.csvReadLine(cursor.line(this), ',');
+    }
+
+    @Benchmark
+    public String[] jorphanSplit(Cursor cursor) {
+        return JOrphanUtils.split(cursor.line(this), ",", false);
+    }
+
+    @Benchmark
+    public String[] parseQuoted(Cursor cursor) throws IOException {
+        return quoted.parse(cursor.line(this));
+    }
+
+    @Benchmark
+    public String[] parsePlain(Cursor cursor) throws IOException {
+        return plain.parse(cursor.line(this));
+    }
+}
@@ -1,6 +1,15 @@
 package com.di.jmeter.config;
 
+import com.di.jmeter.utils.ChunkLease;
+import com.di.jmeter.utils.ColumnProjection;
+import com.di.jmeter.utils.DatasetMetrics;
+import com.di.jmeter.utils.DatasetState;
+import com.di.jmeter.utils.FilePartition;
 import com.di.jmeter.utils.FileServerExtended;
+import com.di.jmeter.utils.OutOfValues;
+import com.di.jmeter.utils.RowLease;
+import com.di.jmeter.utils.RowParser;
+import com.di.jmeter.utils.StorageMode;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jmeter.JMeter;
 import org.apache.jmeter.config.ConfigTestElement;
@@ -10,8 +19,8 @@ import org.apache.jmeter.engine.util.NoConfigMerge;
 import org.apache.jmeter.gui.GuiPackage;
 import org.apache.jmeter.save.CSVSaveService;
 import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.testelement.ThreadListener;
 import org.apache.jmeter.threads.JMeterContext;
-import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.util.JMeterStopThreadException;
@@ -20,12 +29,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopIterationListener, TestStateListener, NoConfigMerge {
+public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopIterationListener, TestStateListener, ThreadListener, NoConfigMerge {
     private static final long serialVersionUID = 767792680142202807L;
     private static final Logger LOGGER = LoggerFactory.getLogger(ExtendedCsvDataSetConfig.class);
 
     private static final String EOFVALUE = JMeterUtils.getPropDefault("csvdataset.eofstring", "<EOF>");
+    // Number of consecutive rows a thread takes at once from a shared sequential cursor
+    private static final int SEQUENTIAL_LEASE_SIZE = JMeterUtils.getPropDefault("extendedcsv.sequential.leaseSize", 1);
+    // Number of consecutive rows a thread takes at once from a Unique dataset with auto allocation
+    private static final int UNIQUE_CHUNK_SIZE = JMeterUtils.getPropDefault("extendedcsv.unique.chunkSize", 64);
+    // Variable name skipping the column of its position
+    private static final String SKIP_COLUMN = "-";
     public static final String FILENAME = "filename";
     public static final String FILE_ENCODING = "fileEncoding";
     public static final String VARIABLE_NAMES = "variableNames";
@@ -39,144 +61,307 @@ public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopI
     public static final String AUTO_ALLOCATE = "autoAllocate";
     public static final String ALLOCATE = "allocate";
     public static final String BLOCK_SIZE = "blockSize";
+    public static final String STORAGE_MODE = "storageMode";
+    public static final String WEIGHT_COLUMN = "weightColumn";
     private String[] variables;
+    // columns of the variables, null when the variables are the columns of the header
+    private ColumnProjection projection;
     private String alias;
-    private boolean recycleFile;
     private boolean ignoreFirstLine;
-    private boolean updateOnceFlag = true;
+    // true once further iterations cannot change the values of the thread
+    private boolean settled;
+    private transient RowPolicy policy;
+    // preparation of the dataset started with the test, shared by the clones (perhaps null)
+    private transient CompletableFuture<Void> preparation;
+    // set by the first clone reporting a failed preparation, shared by the clones
+    private transient AtomicBoolean preparationReported;
+    private transient RowPolicy.Cursor cursor;
+    // Unique lease of the thread, handed back when the thread ends
+    private transient ChunkLease chunkLease;
 
     @Override
     public void iterationStart(LoopIterationEvent iterationEvent) {
-        final JMeterContext context = getThreadContext();
-        final String delimiter = this.getDelimiter();
-        FileServerExtended fileServer = FileServerExtended.getFileServer();
+        if (cursor == null) {
+            long start = System.nanoTime();
+            FileServerExtended fileServer = FileServerExtended.getFileServer();
+            initVars(fileServer, getThreadContext());
+            try {
+                DatasetMetrics metrics = fileServer.getMetrics(alias);
+                if (metrics != null) {
+                    metrics.threadSetup(System.nanoTime() - start);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("No metrics for {} : {}", alias, e.toString());
+            }
+        }
+        if (settled) {
+            return;
+        }
         String[] lineValues = {};
-        if (variables == null) {
-            FileServerExtended.setReadPos(0);
-            initVars(fileServer, context, delimiter);
+        try {
+            String[] values = cursor.next();
+            LOGGER.debug("{} line fetched : {}", policy.getSelectRow(), values);
+            if (values != null) {
+                lineValues = values;
+            } else if (policy.getOutOfValues() == OutOfValues.CONTINUE_WITH_LAST_VALUE) {
+                this.settled = true;
+                return;
+            }
+        } catch (IOException e) {
+            LOGGER.error(e.toString());
         }
-        JMeterVariables jMeterVariables = context.getVariables();
-        // Select Row -> Sequential, Random, Unique
-        switch(getSelectRow().toLowerCase()){
-            case "sequential":
-                try{
-                    String line = fileServer.readLine(alias, recycleFile, ignoreFirstLine);
-                    LOGGER.debug("Sequential line fetched : {}", line);
-                    if(isQuotedData()){
-                        lineValues = fileServer.csvReadLine(line, delimiter.charAt(0));
-                    }else{
-                        lineValues = JOrphanUtils.split(line, delimiter, false);
-                    }
-                }catch(IOException e){
-                    LOGGER.error(e.toString());
-                }
-                break;
-            case "random":
-                try{
-                    String line = fileServer.readRandom(alias, ignoreFirstLine);
-                    LOGGER.debug("Random line fetched : {}", line);
-                    if(isQuotedData()){
-                        lineValues = fileServer.csvReadLine(line, delimiter.charAt(0));
-                    }else{
-                        lineValues = JOrphanUtils.split(line, delimiter, false);
-                    }
-                }catch(IOException e){
-                    LOGGER.error(e.toString());
-                }
+
+        //        Update Value --> Each Iteration, Once
+        if (policy.isUpdateOnce()) {
+            this.settled = true;
+        } else if (lineValues.length == 0) {
+            throw new JMeterStopThreadException("End of file:"+ getFilename()+" detected for CSV DataSet:"
+                    +getName()+" configured to Select Row Parameter :" + getUpdateValue());
+        }
+        JMeterVariables jMeterVariables = getThreadContext().getVariables();
+        for (int a = 0; a < variables.length && a < lineValues.length; a++) {
+            // projected columns past the end of a short row keep their previous value
+            if (lineValues[a] != null) {
+                jMeterVariables.put(variables[a], lineValues[a]);
+            }
+        }
+    }
+
+    private void initVars(FileServerExtended fileServer, JMeterContext context) {
+        if (policy == null) {
+            this.policy = RowPolicy.compile(this);
+        }
+        awaitPreparation();
+        String fileName = getFilename().trim();
+        setAlias(context, fileName);
+        reserveDataset(fileServer, fileName);
+
+        RowLease rowLease = null;
+        switch (policy.getSelectRow()) {
+            case SEQUENTIAL:
+                rowLease = new RowLease(SEQUENTIAL_LEASE_SIZE);
                 break;
-            case "unique":
-                try{
-                    String line = fileServer.readUnique(alias, ignoreFirstLine, getOoValue(), FileServerExtended.getReadPos(), FileServerExtended.getStartPos(), FileServerExtended.getEndPos());
-                    LOGGER.debug("Unique line fetched : {}", line);
-                    if(isQuotedData()){
-                        lineValues = fileServer.csvReadLine(line, delimiter.charAt(0));
-                    }else{
-                        lineValues = JOrphanUtils.split(line, delimiter, false);
-                    }
-                }catch(IOException e){
-                    LOGGER.error(e.toString());
-                }
+            case UNIQUE:
+                chunkLease = this.initBlockFeatures(fileServer);
                 break;
             default:
-                throw new IllegalStateException("Unexpected value: " + getSelectRow().toLowerCase());
+                break;
         }
+        this.cursor = policy.bind(fileServer, alias, ignoreFirstLine, rowLease, chunkLease, projection);
+    }
 
-        //        Update Value --> Each Iteration, Once
-        switch (getPropertyAsString(UPDATE_VALUE).toLowerCase()) {
-            case "each iteration":
-                if (lineValues.length == 0) {
-                    throw new JMeterStopThreadException("End of file:"+ getFilename()+" detected for CSV DataSet:"
-                            +getName()+" configured to Select Row Parameter :" + getUpdateValue());
-                } else {
-                    for (int a = 0; a < variables.length && a < lineValues.length; a++) {
-                        jMeterVariables.put(variables[a], lineValues[a]);
-                    }
-                }
-                break;
-            case "once":
-                if(updateOnceFlag){
-                    for (int a = 0; a < variables.length && a < lineValues.length; a++) {
-                        jMeterVariables.put(variables[a], lineValues[a]);
-                    }
-                    this.updateOnceFlag = false;
+    /**
+     * Waits for the dataset prepared when the test started, so its threads do not prepare it again.
+     * A failed preparation is logged once, by the first thread, then every thread prepares the dataset itself.
+     */
+    private void awaitPreparation() {
+        CompletableFuture<Void> pending = preparation;
+        if (pending != null) {
+            try {
+                pending.join();
+            } catch (CancellationException e) {
+                LOGGER.debug("Preparation of {} cancelled : {}", getName(), e.toString());
+            } catch (CompletionException e) {
+                if (preparationReported.compareAndSet(false, true)) {
+                    LOGGER.error("Could not prepare {}, its threads prepare it on their first iteration",
+                            getName(), e.getCause());
                 }
-                break;
-            default:
-                LOGGER.error("Invalid selection on Update Value");
-                throw new JMeterStopThreadException("Invalid selection :" + getFilename() + " detected for Extended CSV DataSet:"
-                        + getName() + " configured to Select Row Parameter :" + getUpdateValue());
+            }
         }
     }
 
-    private void initVars(FileServerExtended fileServer, JMeterContext context, String delimiter) {
+    /**
+     * Prepares the dataset of the element when the test starts, on the original element. Datasets shared by all
+     * the threads are reserved, counted and set up as their threads would do it; the other ones, whose aliases
+     * depend on the threads, only get the row store of their file, shared with the aliases reserved afterwards.
+     */
+    private void prepareDataset() {
+        FileServerExtended fileServer = FileServerExtended.getFileServer();
         String fileName = getFilename().trim();
+        if ("All threads".equals(getShareMode())) {
+            this.alias = fileName;
+            reserveDataset(fileServer, fileName);
+            // opens the row store, which Sequential reads would otherwise open on the first row
+            fileServer.calculateRowCount(alias, ignoreFirstLine);
+        } else {
+            try {
+                fileServer.prepareRowStore(fileName, getFileEncoding(),
+                        StringUtils.isEmpty(getVariableNames()) || isIgnoreFirstLine(), policy.getStorageMode(),
+                        policy.getParser());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not index file:" + fileName, e);
+            }
+        }
+    }
+
+    /**
+     * Reserves the dataset under the alias of the element, resolves the variables and sets up the state
+     * of the dataset shared by the threads (row count, weights, sharing across processes).
+     */
+    private void reserveDataset(FileServerExtended fileServer, String fileName) {
         final String varNames = getVariableNames();
-        setAlias(context, fileName);
         this.ignoreFirstLine = this.isIgnoreFirstLine();
+        RowParser parser = policy.getParser();
+        StorageMode storageMode = policy.getStorageMode();
 
-        if(getOoValue() != null && getOoValue().equalsIgnoreCase("Continue Cyclic")){
-            this.recycleFile = true;
-        }
         if (StringUtils.isEmpty(varNames)) {
-            String header = fileServer.reserveFile(fileName, getFileEncoding(), alias, true);
+            String header = fileServer.reserveFile(fileName, getFileEncoding(), alias, true, storageMode, parser);
             try {
-                variables = CSVSaveService.csvSplitString(header, delimiter.charAt(0));
+                variables = CSVSaveService.csvSplitString(header, getDelimiter().charAt(0));
                 ignoreFirstLine = true;
                 trimVarNames(variables);
             } catch (IOException e) {
                 throw new IllegalArgumentException("Could not split CSV header line from file:" + fileName, e);
             }
         }else{
-            fileServer.reserveFile(fileName, getFileEncoding(), alias, isIgnoreFirstLine());
-            variables = JOrphanUtils.split(varNames, ",");
+            String header = fileServer.reserveFile(fileName, getFileEncoding(), alias, isIgnoreFirstLine(),
+                    storageMode, parser);
+            projectVariables(JOrphanUtils.split(varNames, ","), header, parser);
+        }
+        trimVarNames(variables);
+
+        switch (policy.getSelectRow()) {
+            case SEQUENTIAL:
+                if (!"Current thread".equals(getShareMode())) {
+                    try {
+                        fileServer.enableReadAhead(alias);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Could not read ahead file:" + fileName, e);
+                    }
+                }
+                break;
+            case UNIQUE:
+                fileServer.calculateRowCount(alias, ignoreFirstLine);
+                if (!"Current thread group".equals(getShareMode()) && !"Current thread".equals(getShareMode())) {
+                    // the alias names the same rows in every process, which may then share them
+                    try {
+                        fileServer.shareAcrossProcesses(alias);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("Could not share the rows of file:" + fileName, e);
+                    }
+                }
+                break;
+            case WEIGHTED_RANDOM:
+                fileServer.calculateRowCount(alias, ignoreFirstLine);
+                try {
+                    fileServer.calculateWeights(alias, getWeightColumnIndex());
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Could not read the weights of file:" + fileName, e);
+                }
+                break;
+            default:
+                fileServer.calculateRowCount(alias, ignoreFirstLine);
+                break;
         }
+    }
 
-        if(!getSelectRow().equalsIgnoreCase("Sequential")){
-            fileServer.calculateRowCount(alias, getVariableNames().isEmpty() && isIgnoreFirstLine());
+    /**
+     * Resolves the columns published by the variable names: a name binds the column of its position,
+     * name=column binds a column given by its header name or number (starting from 0), and
+     * {@value #SKIP_COLUMN} skips the column of its position.
+     *
+     * @param names the variable names of the element
+     * @param header the header line of the file, null if it has none
+     * @param parser the parser of the file
+     */
+    private void projectVariables(String[] names, String header, RowParser parser) {
+        String[] headerNames = null;
+        List<String> published = new ArrayList<>(names.length);
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            int column = i;
+            int eq = name.indexOf('=');
+            if (eq >= 0) {
+                String columnName = name.substring(eq + 1).trim();
+                name = name.substring(0, eq).trim();
+                if (headerNames == null && header != null) {
+                    headerNames = splitHeader(header, parser);
+                }
+                column = resolveColumn(columnName, headerNames);
+            } else if (SKIP_COLUMN.equals(name)) {
+                continue;
+            }
+            columns[published.size()] = column;
+            published.add(name);
         }
-        if(getSelectRow().equalsIgnoreCase("Unique")){
-            this.initBlockFeatures(context);
+        this.variables = published.toArray(new String[0]);
+        this.projection = new ColumnProjection(Arrays.copyOf(columns, published.size()));
+        LOGGER.debug("{} binds columns {} to {}", getName(), projection, published);
+    }
+
+    private String[] splitHeader(String header, RowParser parser) {
+        try {
+            String[] headerNames = parser.parse(header);
+            trimVarNames(headerNames);
+            return headerNames;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not split CSV header line from file:" + getFilename(), e);
         }
-        trimVarNames(variables);
     }
 
-    private void initBlockFeatures(JMeterContext context) {
-        String threadName = context.getThread().getThreadName();
-        int blockSize;
+    /**
+     * @param column the header name or the number of a column
+     * @param headerNames the names of the columns, null if the file has no header line
+     * @return the column number
+     */
+    private static int resolveColumn(String column, String[] headerNames) {
+        if (headerNames != null) {
+            for (int i = 0; i < headerNames.length; i++) {
+                if (headerNames[i].equals(column)) {
+                    return i;
+                }
+            }
+        }
+        try {
+            int number = Integer.parseInt(column);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Column '" + column + "' is neither " + (headerNames == null
+                ? "a column number (the file has no header line)" : "in the header line nor a column number"));
+    }
 
-        if(isAutoAllocate()){
-            blockSize = FileServerExtended.getRowCount() / JMeterContextService.getTotalThreads();
-        }else{
-            blockSize = Integer.parseInt(getBlockSize());
-            if(blockSize < 1){
-                throw new JMeterStopThreadException("Block Size Allocation Exception :" + getBlockSize() + " Please Ensure the block size is greater than 0"
-                        + " Or select auto allocate feature, which is currently set to : " + isAutoAllocate());
+    /**
+     * @return the column of the weights, given as one of the variable names or as a column number
+     */
+    private int getWeightColumnIndex() {
+        String column = getWeightColumn().trim();
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(column)) {
+                return projection == null ? i : projection.getColumn(i);
             }
         }
-        //Set Start and end position to block
-        FileServerExtended.setReadPosition(threadName, blockSize, isIgnoreFirstLine());
-        if(FileServerExtended.getReadPos() == 0){
-            FileServerExtended.setReadPos(FileServerExtended.getStartPos());
+        try {
+            return Integer.parseInt(column);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Weight column '" + column + "' is neither a variable name nor a column number", e);
+        }
+    }
+
+    /**
+     * @return the lease through which the thread takes blocks of rows from the shared counter of the dataset
+     */
+    private ChunkLease initBlockFeatures(FileServerExtended fileServer) {
+        long blockSize;
+
+        try {
+            DatasetState dataset = fileServer.getDataset(alias);
+            if(isAutoAllocate()){
+                blockSize = UNIQUE_CHUNK_SIZE;
+            }else{
+                blockSize = Long.parseLong(getBlockSize());
+                if(blockSize < 1){
+                    throw new JMeterStopThreadException("Block Size Allocation Exception :" + getBlockSize() + " Please Ensure the block size is greater than 0"
+                            + " Or select auto allocate feature, which is currently set to : " + isAutoAllocate());
+                }
+            }
+            return dataset.register((int) Math.min(blockSize, Integer.MAX_VALUE));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not allocate block of file:" + getFilename(), e);
         }
     }
 
@@ -195,17 +380,60 @@ public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopI
                 this.alias = alias + "@" + getShareMode();
                 break;
         }
-        if(getSelectRow().equalsIgnoreCase("Sequential")){
-            this.alias = alias + "@" + System.identityHashCode(context.getThread());
-        }
     }
 
     private boolean isServerMode() {
         return System.getProperty("server_port") != null;
     }
 
+    @Override
+    public Object clone() {
+        ExtendedCsvDataSetConfig clone = (ExtendedCsvDataSetConfig) super.clone();
+        clone.policy = policy;
+        clone.preparation = preparation;
+        clone.preparationReported = preparationReported;
+        return clone;
+    }
+
+    @Override
+    public void threadStarted() {
+        // the dataset is bound on the first iteration
+    }
+
+    /**
+     * Hands the Unique lease of the thread back to the dataset, so its slot can serve another thread.
+     */
+    @Override
+    public void threadFinished() {
+        if (chunkLease != null) {
+            try {
+                FileServerExtended.getFileServer().getDataset(alias).unregister(chunkLease);
+            } catch (IOException e) {
+                LOGGER.debug("Dataset {} already closed : {}", alias, e.toString());
+            }
+            chunkLease = null;
+        }
+    }
+
     @Override
     public void testStarted() {
+        testStarted(null);
+    }
+
+    /**
+     * Resolves the settings shared by the threads, and the share of the rows of this engine in a distributed test.
+     *
+     * @param host the name of this engine in distributed runs, null otherwise
+     */
+    @Override
+    public void testStarted(String host) {
+        try {
+            this.policy = RowPolicy.compile(this);
+        } catch (RuntimeException e) {
+            // reported again by the threads when they initialize
+            this.policy = null;
+            LOGGER.error("Invalid row selection settings of {} : {}", getName(), e.toString());
+        }
         FileServerExtended fileServer = FileServerExtended.getFileServer();
         String baseDirectory = org.apache.jmeter.services.FileServer.getFileServer().getBaseDir();
 
@@ -215,11 +443,17 @@ public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopI
             String testPlanFile = GuiPackage.getInstance().getTestPlanFile();
             fileServer.setBasedir(testPlanFile);
         }
+        fileServer.setPartition(FilePartition.resolve(host));
+        // indexed concurrently with the other datasets of the plan, before the threads start
+        this.preparationReported = new AtomicBoolean();
+        this.preparation = policy == null ? null : fileServer.prepare(getName(), this::prepareDataset);
     }
 
     @Override
     public void testEnded() {
         FileServerExtended fileServerExtended = FileServerExtended.getFileServer();
+        // once, the first element ending closes the files of all of them
+        fileServerExtended.logMetrics();
         try{
             fileServerExtended.closeFiles();
         } catch (IOException e){
@@ -227,11 +461,6 @@ public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopI
         }
     }
 
-    @Override
-    public void testStarted(String host) {
-        testStarted();
-    }
-
     @Override
     public void testEnded(String host) {
         testEnded();
@@ -337,7 +566,19 @@ public class ExtendedCsvDataSetConfig extends ConfigTestElement implements LoopI
     public void setBlockSize(String blockSize) {
         setProperty(BLOCK_SIZE, blockSize);
     }
+    public String getStorageMode() {
+        return getPropertyAsString(STORAGE_MODE);
+    }
+    public void setStorageMode(String storageMode) {
+        setProperty(STORAGE_MODE, storageMode);
+    }
+    public String getWeightColumn() {
+        return getPropertyAsString(WEIGHT_COLUMN);
+    }
+    public void setWeightColumn(String weightColumn) {
+        setProperty(WEIGHT_COLUMN, weightColumn);
+    }
     public String printAllProperties() {
-        return String.format("Filename: %s\n,FileEncoding: %s\n VariableName: %s\n IgnoreFirstLine: %s\n Delimiter: %s\n IsQuotedData: %s\n SelectRow: %s\n UpdateValue: %s\n OOValue: %s\n AutoAllocate: %s\n Allocate: %s\n BlockSize: %s\n",getFilename(),getFileEncoding(),getVariableNames(),isIgnoreFirstLine(),getDelimiter(),isQuotedData(),getSelectRow(),getUpdateValue(),getOoValue(),isAllocate(),isAutoAllocate(),getBlockSize());
+        return String.format("Filename: %s\n,FileEncoding: %s\n VariableName: %s\n IgnoreFirstLine: %s\n Delimiter: %s\n IsQuotedData: %s\n SelectRow: %s\n UpdateValue: %s\n OOValue: %s\n AutoAllocate: %s\n Allocate: %s\n BlockSize: %s\n StorageMode: %s\n WeightColumn: %s\n",getFilename(),getFileEncoding(),getVariableNames(),isIgnoreFirstLine(),getDelimiter(),isQuotedData(),getSelectRow(),getUpdateValue(),getOoValue(),isAllocate(),isAutoAllocate(),getBlockSize(),getStorageMode(),getWeightColumn());
     }
 }
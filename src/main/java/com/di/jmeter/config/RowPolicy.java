@@ -0,0 +1,147 @@
+package com.di.jmeter.config;
+
+import com.di.jmeter.utils.ChunkLease;
+import com.di.jmeter.utils.ColumnProjection;
+import com.di.jmeter.utils.FileServerExtended;
+import com.di.jmeter.utils.OutOfValues;
+import com.di.jmeter.utils.RowLease;
+import com.di.jmeter.utils.RowParser;
+import com.di.jmeter.utils.StorageMode;
+import org.apache.jorphan.util.JMeterStopThreadException;
+
+import java.io.IOException;
+
+/**
+ * Row selection settings of a dataset, resolved once from the properties of the element.
+ * <p>
+ * The policy is immutable and shared by the clones of the element, each thread binds its own
+ * {@link Cursor} specialized for the select mode, so an iteration neither compares strings nor
+ * branches on settings which cannot change during the test.
+ */
+final class RowPolicy {
+
+    enum SelectRow {
+        SEQUENTIAL,
+        RANDOM,
+        UNIQUE,
+        RANDOM_UNIQUE,
+        WEIGHTED_RANDOM
+    }
+
+    private final SelectRow selectRow;
+    private final boolean updateOnce;
+    private final OutOfValues outOfValues;
+    private final RowParser parser;
+    private final StorageMode storageMode;
+
+    private RowPolicy(SelectRow selectRow, boolean updateOnce, OutOfValues outOfValues, RowParser parser,
+                      StorageMode storageMode) {
+        this.selectRow = selectRow;
+        this.updateOnce = updateOnce;
+        this.outOfValues = outOfValues;
+        this.parser = parser;
+        this.storageMode = storageMode;
+    }
+
+    /**
+     * @param config the element holding the settings
+     * @return the policy of the element
+     * @throws IllegalStateException for an unknown select row value
+     * @throws JMeterStopThreadException for an unknown update value
+     */
+    static RowPolicy compile(ExtendedCsvDataSetConfig config) {
+        SelectRow selectRow;
+        switch (config.getSelectRow().toLowerCase()) {
+            case "sequential":
+                selectRow = SelectRow.SEQUENTIAL;
+                break;
+            case "random":
+                selectRow = SelectRow.RANDOM;
+                break;
+            case "unique":
+                selectRow = SelectRow.UNIQUE;
+                break;
+            case "random unique":
+                selectRow = SelectRow.RANDOM_UNIQUE;
+                break;
+            case "weighted random":
+                selectRow = SelectRow.WEIGHTED_RANDOM;
+                break;
+            default:
+                throw new IllegalStateException("Unexpected value: " + config.getSelectRow().toLowerCase());
+        }
+        boolean updateOnce;
+        switch (config.getUpdateValue().toLowerCase()) {
+            case "each iteration":
+                updateOnce = false;
+                break;
+            case "once":
+                updateOnce = true;
+                break;
+            default:
+                throw new JMeterStopThreadException("Invalid selection :" + config.getFilename() + " detected for Extended CSV DataSet:"
+                        + config.getName() + " configured to Select Row Parameter :" + config.getUpdateValue());
+        }
+        return new RowPolicy(selectRow, updateOnce, OutOfValues.fromString(config.getOoValue()),
+                new RowParser(config.getDelimiter(), config.isQuotedData()), StorageMode.fromString(config.getStorageMode()));
+    }
+
+    SelectRow getSelectRow() {
+        return selectRow;
+    }
+
+    boolean isUpdateOnce() {
+        return updateOnce;
+    }
+
+    OutOfValues getOutOfValues() {
+        return outOfValues;
+    }
+
+    RowParser getParser() {
+        return parser;
+    }
+
+    StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * @param fileServer the file server holding the reserved file
+     * @param alias the alias the file was reserved with
+     * @param ignoreFirstLine true if the first line of the file is a header
+     * @param rowLease the rows leased by the thread, for sequential reads
+     * @param chunkLease the chunk lease of the thread, for unique reads
+     * @param projection the columns bound to the variables of the thread, null for all of them
+     * @return the cursor reading the rows of the thread
+     */
+    Cursor bind(FileServerExtended fileServer, String alias, boolean ignoreFirstLine, RowLease rowLease,
+                ChunkLease chunkLease, ColumnProjection projection) {
+        switch (selectRow) {
+            case SEQUENTIAL:
+                boolean recycle = outOfValues == OutOfValues.CONTINUE_CYCLIC;
+                return () -> fileServer.readLineValues(alias, recycle, ignoreFirstLine, rowLease, projection);
+            case RANDOM:
+                return () -> fileServer.readRandomValues(alias, projection);
+            case WEIGHTED_RANDOM:
+                return () -> fileServer.readWeightedRandomValues(alias, projection);
+            case RANDOM_UNIQUE:
+                return () -> fileServer.readRandomUniqueValues(alias, outOfValues, projection);
+            default:
+                return () -> fileServer.readUniqueValues(alias, chunkLease, outOfValues, projection);
+        }
+    }
+
+    /**
+     * Reads the rows of a thread.
+     */
+    @FunctionalInterface
+    interface Cursor {
+
+        /**
+         * @return the values of the next row, null if there are no more rows
+         * @throws IOException when reading of the file fails
+         */
+        String[] next() throws IOException;
+    }
+}
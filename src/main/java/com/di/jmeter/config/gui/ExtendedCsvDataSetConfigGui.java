@@ -27,16 +27,19 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
     private JComboBox<Boolean> quotedDataCBox;
     private JComboBox<String> sharingModeCBox;
     private JComboBox<String> selectRowCBox;
+    private JTextField weightColumnField;
     private JComboBox<String> updateValueCBox;
     private JComboBox<String> ooValueCBox;
+    private JComboBox<String> storageModeCBox;
     private JRadioButton autoAllocateRButton;
     private JRadioButton allocateRButton;
     private JTextField blockSizeField;
     private final String[] fileEncodingValues = {"UTF-8", "UTF-16", "ISO-8859-15", "US-ASCII"};
     private final String[] sharingModeValues = {"All threads", "Current thread group", "Current thread"};
-    private final String[] selectRowValues = {"Sequential", "Random", "Unique"};
+    private final String[] selectRowValues = {"Sequential", "Random", "Unique", "Random Unique", "Weighted Random"};
     private final String[] updateValues = {"Each Iteration", "Once"};
     private final String[] ooValues = {"Continue Cyclic", "Continue with Last Value", "Abort Thread"};
+    private final String[] storageModeValues = {"Auto", "Indexed", "Memory Mapped", "Preload", "Off-Heap", "Follow"};
 
     public ExtendedCsvDataSetConfigGui(){
         init();
@@ -72,9 +75,11 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
             eCsvDataSetConfig.setDelimiter(this.delimiterField.getText());
             eCsvDataSetConfig.setQuotedData(this.quotedDataCBox.getItemAt(quotedDataCBox.getSelectedIndex()));
             eCsvDataSetConfig.setSelectRow(this.selectRowCBox.getItemAt(selectRowCBox.getSelectedIndex()));
+            eCsvDataSetConfig.setWeightColumn(this.weightColumnField.getText());
             eCsvDataSetConfig.setUpdateValue(this.updateValueCBox.getItemAt(updateValueCBox.getSelectedIndex()));
             eCsvDataSetConfig.setOoValue(this.ooValueCBox.getItemAt(ooValueCBox.getSelectedIndex()));
             eCsvDataSetConfig.setShareMode(this.sharingModeCBox.getItemAt(sharingModeCBox.getSelectedIndex()));
+            eCsvDataSetConfig.setStorageMode(this.storageModeCBox.getItemAt(storageModeCBox.getSelectedIndex()));
             eCsvDataSetConfig.setAutoAllocate(this.autoAllocateRButton.isSelected());
             eCsvDataSetConfig.setAllocate(this.allocateRButton.isSelected());
             eCsvDataSetConfig.setBlockSize(this.blockSizeField.getText());
@@ -143,6 +148,10 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
         addToPanel(csvDataSourcePanel, editConstraints, 1, row, selectRowCBox = new JComboBox<>(selectRowValues));
         row++;
 
+        addToPanel(csvDataSourcePanel, labelConstraints, 0, row, new JLabel("Weight Column: ", JLabel.CENTER));
+        addToPanel(csvDataSourcePanel, editConstraints, 1, row, weightColumnField = new JTextField(20));
+        row++;
+
         addToPanel(csvDataSourcePanel, labelConstraints, 0, row, new JLabel("Update Values: ", JLabel.CENTER));
         addToPanel(csvDataSourcePanel, editConstraints, 1, row, updateValueCBox = new JComboBox<>(updateValues));
         row++;
@@ -153,6 +162,10 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
 
         addToPanel(csvDataSourcePanel, labelConstraints, 0, row, new JLabel("Sharing Mode: ", JLabel.CENTER));
         addToPanel(csvDataSourcePanel, editConstraints, 1, row, sharingModeCBox = new JComboBox<>(sharingModeValues));
+        row++;
+
+        addToPanel(csvDataSourcePanel, labelConstraints, 0, row, new JLabel("Storage Mode: ", JLabel.CENTER));
+        addToPanel(csvDataSourcePanel, editConstraints, 1, row, storageModeCBox = new JComboBox<>(storageModeValues));
 
         fileEncodingCBox.setEditable(true);
         csvDatasourceConfigPanel.add(csvDataSourcePanel, BorderLayout.NORTH);
@@ -195,6 +208,7 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
         allocateBlockConfigBox.add(allocateBlockConfigBoxPanel);
 
         ooValueCBox.setEnabled(true);
+        weightColumnField.setEnabled(false);
         allocateConfigPanel.setEnabled(false);
         allocateBlockConfigBoxPanel.setEnabled(false);
         autoAllocateRButton.setSelected(true);
@@ -211,17 +225,20 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
         browseButton.setToolTipText("Browse...");
         viewFileButton.setToolTipText("View/Edit file in system default editor");
         fileEncodingCBox.setToolTipText("The character set encoding used in the file");
-        variableNamesField.setToolTipText("List your variable names in order to match the order of columns in your csv data. Keep it empty to use the first line of the file for variable names");
+        variableNamesField.setToolTipText("List your variable names in order to match the order of columns in your csv data. Keep it empty to use the first line of the file for variable names."
+                + " Use name=column to bind a column by its header name or number, and - to skip a column; columns after the last bound one are not parsed");
         ignoreFirstLineCBox.setToolTipText("Ignore first line of CSV file, it will only be used used if Variable Names is not empty, if Variable Names is empty the first line must contain the headers");
         delimiterField.setToolTipText("Enter the delimiter ('\\t' for tab)");
         quotedDataCBox.setToolTipText("Allow CSV data values to be quoted?");
         selectRowCBox.setToolTipText("Options on reading file");
+        weightColumnField.setToolTipText("Weighted Random only: variable name (or column number, starting from 0) of the column holding the weight of each row");
         updateValueCBox.setToolTipText("Options on update parameter during run");
         ooValueCBox.setToolTipText("Options while reaching EOF");
         sharingModeCBox.setToolTipText("Select which threads share the same file pointer");
-        autoAllocateRButton.setToolTipText("Automatically calculates the blocksize for each thread(s)");
+        storageModeCBox.setToolTipText("Read engine serving the rows: positional reads of the file, memory mapped file, file preloaded in memory (Auto preloads small files), rows kept off-heap, or Follow a file still being written (applies to Sequential only, whose readers at the end of the file wait for the next line; the other Select Row modes only serve the lines present when the rows are counted)");
+        autoAllocateRButton.setToolTipText("Threads take blocks of extendedcsv.unique.chunkSize rows (64 by default) at once");
         allocateRButton.setToolTipText("Custom allocation of blocksize for each thread(s)");
-        blockSizeField.setToolTipText("Blocksize value for custom allocation of threads");
+        blockSizeField.setToolTipText("Number of rows a thread takes at once, a new block is taken when it is used up");
 
         rootPanel.add(csvDataSourceConfigBox, BorderLayout.NORTH);
         rootPanel.add(allocateBlockConfigBox, BorderLayout.CENTER);
@@ -233,6 +250,7 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
 
         selectRowCBox.addActionListener(e -> {
             LOGGER.debug("Selection is : {}", selectRowCBox.getSelectedItem());
+            weightColumnField.setEnabled(Objects.equals(selectRowCBox.getSelectedItem(), "Weighted Random"));
             if(Objects.equals(selectRowCBox.getSelectedItem(), "Unique")){
                 ooValueCBox.setEnabled(true);
                 allocateConfigPanel.setEnabled(true);
@@ -244,7 +262,8 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
                 autoAllocateRButton.setSelected(autoAllocateRButton.isSelected());
                 allocateRButton.setSelected(allocateRButton.isSelected());
                 blockSizeField.setEnabled(allocateRButton.isSelected() && allocateRButton.isEnabled());
-            }else if(Objects.equals(selectRowCBox.getSelectedItem(), "Sequential")){
+            }else if(Objects.equals(selectRowCBox.getSelectedItem(), "Sequential")
+                    || Objects.equals(selectRowCBox.getSelectedItem(), "Random Unique")){
                 ooValueCBox.setEnabled(true);
                 allocateConfigPanel.setEnabled(false);
                 autoAllocateLabel.setEnabled(false);
@@ -317,9 +336,11 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
         delimiterField.setText(",");
         quotedDataCBox.setSelectedIndex(1);
         selectRowCBox.setSelectedIndex(0);
+        weightColumnField.setText("");
         updateValueCBox.setSelectedIndex(0);
         ooValueCBox.setSelectedIndex(0);
         sharingModeCBox.setSelectedIndex(0);
+        storageModeCBox.setSelectedIndex(0);
         blockSizeField.setText("");
     }
 
@@ -335,9 +356,11 @@ public class ExtendedCsvDataSetConfigGui extends AbstractConfigGui {
             delimiterField.setText(config.getDelimiter());
             quotedDataCBox.setSelectedItem(config.isQuotedData());
             selectRowCBox.setSelectedItem(config.getSelectRow());
+            weightColumnField.setText(config.getWeightColumn());
             updateValueCBox.setSelectedItem(config.getUpdateValue());
             ooValueCBox.setSelectedItem(config.getOoValue());
             sharingModeCBox.setSelectedItem(config.getShareMode());
+            storageModeCBox.setSelectedItem(config.getStorageMode().isEmpty() ? storageModeValues[0] : config.getStorageMode());
             autoAllocateRButton.setSelected(config.isAutoAllocate());
             allocateRButton.setSelected(config.isAllocate());
             blockSizeField.setText(config.getBlockSize());
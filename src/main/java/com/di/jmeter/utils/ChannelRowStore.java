@@ -0,0 +1,46 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Serves rows with a single positional read of the file channel at the offset given by the {@link LineIndex}.
+ * Positional reads do not change the channel position, so one channel is shared by all threads,
+ * reopened if the interrupt of one of them closes it.
+ */
+public class ChannelRowStore implements RowStore {
+
+    private final LineIndex lineIndex;
+    private final Charset charset;
+    private final SharedFileChannel channel;
+
+    public ChannelRowStore(File file, LineIndex lineIndex, Charset charset) throws IOException {
+        this.lineIndex = lineIndex;
+        this.charset = charset;
+        this.channel = new SharedFileChannel(file);
+    }
+
+    @Override
+    public int size() {
+        return lineIndex.size();
+    }
+
+    @Override
+    public String getRow(int row) throws IOException {
+        long start = lineIndex.start(row);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (lineIndex.end(row) - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return LineIndex.decode(buffer.array(), 0, buffer.position(), charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,201 @@
+package com.di.jmeter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Persists the Sequential and Unique cursors of the datasets to sidecar files, so a later run can resume
+ * past the rows already consumed.
+ * <p>
+ * A single background thread writes the sidecars of the cursors which moved, every interval or as soon
+ * as a cursor moved by the configured number of rows. The threads of the test only compare their cursor
+ * with the last written value and wake the writer, they never wait for the file system.
+ * Each sidecar is written to a temporary file moved over the previous one, so a crash leaves either
+ * the previous or the new checkpoint.
+ */
+final class CheckpointWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CheckpointWriter.class);
+
+    private static final String SEQUENCE = "sequence";
+    private static final String LEASED = "leased";
+    private static final String FINGERPRINT = "fingerprint";
+
+    private final long intervalNanos;
+    private final long rows;
+    private final Queue<Sidecar> sidecars = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param intervalMillis - time between two writes of a moving cursor
+     * @param rows - rows a cursor moves before its sidecar is written ahead of the interval
+     */
+    CheckpointWriter(long intervalMillis, long rows) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis));
+        this.rows = Math.max(1, rows);
+        this.writer = new Thread(this::run, "ExtendedCsv-checkpoint");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Cursors of a dataset and the sidecar file they are written to.
+     */
+    static final class Sidecar {
+        private final File file;
+        private final String fingerprint;
+        private final LongSupplier sequence;
+        private final LongSupplier leased;
+        private final LongSupplier leasedSeen;
+        private volatile long writtenSequence;
+        private volatile long writtenLeased;
+
+        /**
+         * @param file the sidecar file
+         * @param fingerprint - identifies the rows of the dataset, a checkpoint of other rows is not resumed
+         * @param sequence - reads the Sequential cursor
+         * @param leased - reads the Unique cursor
+         * @param leasedSeen - reads the Unique cursor without blocking, perhaps behind, to decide when to write
+         */
+        Sidecar(File file, String fingerprint, LongSupplier sequence, LongSupplier leased, LongSupplier leasedSeen) {
+            this.file = file;
+            this.fingerprint = fingerprint;
+            this.sequence = sequence;
+            this.leased = leased;
+            this.leasedSeen = leasedSeen;
+        }
+
+        /**
+         * Reads the cursors saved by a previous run.
+         *
+         * @return the Sequential and Unique cursors, null if there is no checkpoint of the same rows
+         */
+        long[] read() {
+            if (!file.isFile()) {
+                return null;
+            }
+            Properties saved = new Properties();
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                saved.load(in);
+                if (!fingerprint.equals(saved.getProperty(FINGERPRINT))) {
+                    log.warn("Checkpoint {} was taken on other rows, it is not resumed", file);
+                    return null;
+                }
+                long[] cursors = {Long.parseLong(saved.getProperty(SEQUENCE, "0")),
+                        Long.parseLong(saved.getProperty(LEASED, "0"))};
+                writtenSequence = cursors[0];
+                writtenLeased = cursors[1];
+                return cursors;
+            } catch (IOException | NumberFormatException e) {
+                log.warn("Checkpoint {} cannot be read, it is not resumed: {}", file, e.toString());
+                return null;
+            }
+        }
+
+        private synchronized boolean write() throws IOException {
+            long currentSequence = sequence.getAsLong();
+            long currentLeased = leased.getAsLong();
+            if (currentSequence == writtenSequence && currentLeased == writtenLeased) {
+                return false;
+            }
+            Properties saved = new Properties();
+            saved.setProperty(FINGERPRINT, fingerprint);
+            saved.setProperty(SEQUENCE, Long.toString(currentSequence));
+            saved.setProperty(LEASED, Long.toString(currentLeased));
+            File temp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                saved.store(out, "Extended CSV cursors, rows consumed before them are skipped on resume");
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            writtenSequence = currentSequence;
+            writtenLeased = currentLeased;
+            return true;
+        }
+    }
+
+    void add(Sidecar sidecar) {
+        sidecars.add(sidecar);
+    }
+
+    /**
+     * Writes the last positions of the cursors of the sidecar and stops following them.
+     *
+     * @param sidecar the sidecar of a dataset being closed
+     */
+    void remove(Sidecar sidecar) {
+        if (sidecars.remove(sidecar)) {
+            try {
+                sidecar.write();
+            } catch (IOException e) {
+                log.error("Checkpoint {} cannot be written: {}", sidecar.file, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Wakes the writer when a cursor of the sidecar moved by the row threshold since its last write.
+     * Called on the read paths, it neither blocks nor touches the file system.
+     *
+     * @param sidecar the sidecar of the dataset read
+     */
+    void moved(Sidecar sidecar) {
+        if (sidecar.sequence.getAsLong() - sidecar.writtenSequence >= rows
+                || sidecar.leasedSeen.getAsLong() - sidecar.writtenLeased >= rows) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            LockSupport.parkNanos(this, intervalNanos);
+            flush();
+        }
+    }
+
+    private void flush() {
+        for (Sidecar sidecar : sidecars) {
+            try {
+                sidecar.write();
+            } catch (IOException e) {
+                log.error("Checkpoint {} cannot be written: {}", sidecar.file, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Stops the writer once the last positions of the cursors are written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        sidecars.clear();
+    }
+}
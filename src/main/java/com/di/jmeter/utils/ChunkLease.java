@@ -0,0 +1,161 @@
+package com.di.jmeter.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Chunk of consecutive data rows leased by a thread in Unique mode.
+ * <p>
+ * The owning thread takes the rows of its chunk one by one and leases a new chunk from the shared
+ * counter of the dataset when it is exhausted. Once the counter is exhausted too, an idle thread may steal
+ * the second half of the rows left in the chunk of another thread. The next row and the end of the chunk
+ * are packed in a single atomic long, so taking a row and stealing rows never hand out the same row twice.
+ * <p>
+ * When the dataset is shared with other processes, the rows left in the chunk are held by a slot of the
+ * {@link ControlSegment} of the dataset, which is only updated under a file lock. The owner then claims the
+ * first half of the rows of the slot at once and takes them one by one from its own memory, the thieves
+ * steal from the half left in the slot. The slot is locked when a chunk is assigned, claimed or stolen,
+ * about log2(chunk size) times per chunk instead of once per row.
+ */
+public final class ChunkLease {
+
+    private static final long NONE = pack(0, 0);
+
+    private final int size;
+    // next row (high 32 bits) and end of the chunk (low 32 bits), relative to the first data row; in a control
+    // segment only the rows claimed by the owner, followed by the rows left in the slot
+    private final AtomicLong rows;
+    // slot holding the rows not claimed yet, when the lease lives in a control segment
+    private final ControlSegment segment;
+    private final int slot;
+
+    ChunkLease(int size) {
+        this(size, null, -1);
+    }
+
+    ChunkLease(int size, ControlSegment segment, int slot) {
+        this.size = Math.max(1, size);
+        this.rows = new AtomicLong(NONE);
+        this.segment = segment;
+        this.slot = slot;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the remaining rows of the chunk, read without locking the control segment
+     */
+    public int remaining() {
+        long claimed = rows.get();
+        int remaining = Math.max(0, end(claimed) - next(claimed));
+        if (segment != null) {
+            long state = segment.peek(slot);
+            remaining += Math.max(0, end(state) - next(state));
+        }
+        return remaining;
+    }
+
+    /**
+     * Takes the next row of the chunk, only called by the owning thread.
+     *
+     * @return the row (relative to the first data row), -1 if the chunk is exhausted
+     */
+    int next() {
+        int row = take();
+        if (row < 0 && segment != null) {
+            // claims the first half of the rows left in the slot, the other half stays there for the thieves
+            long state = segment.getAndUpdate(slot, current -> next(current) < end(current)
+                    ? pack(claimEnd(current), end(current)) : current);
+            if (next(state) < end(state)) {
+                rows.set(pack(next(state), claimEnd(state)));
+                row = take();
+            }
+        }
+        return row;
+    }
+
+    private int take() {
+        long state = rows.getAndUpdate(current -> next(current) < end(current)
+                ? pack(next(current) + 1, end(current)) : current);
+        return next(state) < end(state) ? next(state) : -1;
+    }
+
+    /**
+     * Replaces an exhausted chunk, only called by the owning thread.
+     *
+     * @param start - first row of the chunk
+     * @param end - row following the chunk
+     */
+    void assign(int start, int end) {
+        if (segment == null) {
+            rows.set(pack(start, end));
+        } else {
+            long chunk = pack(start, end);
+            segment.set(slot, pack(claimEnd(chunk), end));
+            rows.set(pack(start, claimEnd(chunk)));
+        }
+    }
+
+    /**
+     * Takes the second half of the rows left in the chunk, or the last one. The rows of a control segment
+     * claimed by the owner cannot be stolen.
+     *
+     * @return the stolen rows packed as by {@link #assign(int, int)}, -1 if there was nothing to steal
+     */
+    long steal() {
+        LongUnaryOperator halve = current -> next(current) < end(current)
+                ? pack(next(current), split(current)) : current;
+        long state = segment == null ? rows.getAndUpdate(halve) : segment.getAndUpdate(slot, halve);
+        return next(state) < end(state) ? pack(split(state), end(state)) : -1;
+    }
+
+    /**
+     * Hands the lease slot of the control segment back once the owning thread stopped taking rows,
+     * with the rows it claimed and did not take.
+     *
+     * @return true if the lease lives in a control segment
+     */
+    boolean release() {
+        if (segment == null) {
+            return false;
+        }
+        long claimed = rows.getAndSet(NONE);
+        if (next(claimed) < end(claimed)) {
+            // the rows left in the slot follow the claimed ones, unless they were all stolen
+            segment.getAndUpdate(slot, current -> next(current) < end(current)
+                    ? pack(next(claimed), end(current)) : claimed);
+        }
+        segment.releaseLease(slot);
+        return true;
+    }
+
+    /**
+     * @return the row following the rows the owner claims, the first half of the rows left or the last one
+     */
+    private static int claimEnd(long state) {
+        int next = next(state);
+        return next + (end(state) - next + 1) / 2;
+    }
+
+    /**
+     * @return the first of the rows a steal takes, the second half of the rows left or the last one
+     */
+    private static int split(long state) {
+        int next = next(state);
+        return next + (end(state) - next) / 2;
+    }
+
+    static long pack(int start, int end) {
+        return ((long) start << 32) | (end & 0xFFFFFFFFL);
+    }
+
+    static int next(long state) {
+        return (int) (state >>> 32);
+    }
+
+    static int end(long state) {
+        return (int) state;
+    }
+}
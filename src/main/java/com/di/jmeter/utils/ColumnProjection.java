@@ -0,0 +1,69 @@
+package com.di.jmeter.utils;
+
+import java.util.Arrays;
+
+/**
+ * Columns of a row published to the variables of an element, in the order of the variables.
+ * <p>
+ * Rows are only tokenized up to the last projected column, and values are only built for the projected columns,
+ * so the columns a thread group does not bind cost neither CPU nor garbage.
+ */
+public final class ColumnProjection {
+
+    private final int[] columns;
+    private final int limit;
+
+    /**
+     * @param columns - column of each projected value (starts from 0), a column may be projected more than once
+     */
+    public ColumnProjection(int[] columns) {
+        int last = -1;
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+            last = Math.max(last, column);
+        }
+        this.columns = columns.clone();
+        this.limit = last + 1;
+    }
+
+    /**
+     * @return number of projected values
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * @param index - index of the projected value (starts from 0)
+     * @return the column of the value
+     */
+    public int getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * @return number of leading columns of a row holding all the projected ones
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param values the values of all the columns of a row
+     * @return the projected values, null for the columns past the end of the row
+     */
+    public String[] select(String[] values) {
+        String[] projected = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            projected[i] = columns[i] < values.length ? values[columns[i]] : null;
+        }
+        return projected;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(columns);
+    }
+}
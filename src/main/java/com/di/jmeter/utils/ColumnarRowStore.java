@@ -0,0 +1,137 @@
+package com.di.jmeter.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * In-memory dataset parsed once at load time and kept column by column.
+ * <p>
+ * Each column holds the characters of all its values in a single char array, and the end offset
+ * of the value of each row in an int array, so the whole dataset costs two arrays per column
+ * instead of a String array per row. Values are only materialized as Strings when a row is fetched.
+ */
+public class ColumnarRowStore implements RowStore {
+
+    private final RowParser parser;
+    private final String firstLine;
+    private final int rows;
+    // number of values of each row
+    private final int[] widths;
+    private final char[][] data;
+    // ends[c][r] is the end offset of the value of row r in data[c], its start is the end of row r - 1
+    private final int[][] ends;
+
+    private ColumnarRowStore(RowParser parser, String firstLine, int rows, int[] widths, char[][] data, int[][] ends) {
+        this.parser = parser;
+        this.firstLine = firstLine;
+        this.rows = rows;
+        this.widths = widths;
+        this.data = data;
+        this.ends = ends;
+    }
+
+    /**
+     * Reads and parses all the lines of the reader.
+     *
+     * @param reader the reader of the file, positioned at its start
+     * @param parser the parser splitting the lines into values
+     * @return the loaded store
+     * @throws IOException when reading or parsing of the file fails
+     */
+    public static ColumnarRowStore load(BufferedReader reader, RowParser parser) throws IOException {
+        int rows = 0;
+        int[] widths = new int[1024];
+        char[][] data = new char[0][];
+        int[] used = new int[0];
+        int[][] ends = new int[0][];
+        String firstLine = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (rows == 0) {
+                firstLine = line;
+            }
+            String[] values = parser.parse(line);
+            if (values.length > data.length) {
+                int columns = data.length;
+                data = Arrays.copyOf(data, values.length);
+                used = Arrays.copyOf(used, values.length);
+                ends = Arrays.copyOf(ends, values.length);
+                for (int c = columns; c < values.length; c++) {
+                    data[c] = new char[256];
+                    ends[c] = new int[widths.length];
+                }
+            }
+            if (rows == widths.length) {
+                widths = Arrays.copyOf(widths, rows << 1);
+                for (int c = 0; c < ends.length; c++) {
+                    ends[c] = Arrays.copyOf(ends[c], rows << 1);
+                }
+            }
+            widths[rows] = values.length;
+            for (int c = 0; c < data.length; c++) {
+                if (c < values.length) {
+                    String value = values[c];
+                    int required = used[c] + value.length();
+                    if (required > data[c].length) {
+                        data[c] = Arrays.copyOf(data[c], Math.max(required, data[c].length << 1));
+                    }
+                    value.getChars(0, value.length(), data[c], used[c]);
+                    used[c] = required;
+                }
+                ends[c][rows] = used[c];
+            }
+            rows++;
+        }
+        for (int c = 0; c < data.length; c++) {
+            data[c] = Arrays.copyOf(data[c], used[c]);
+            ends[c] = Arrays.copyOf(ends[c], rows);
+        }
+        return new ColumnarRowStore(parser, firstLine, rows, Arrays.copyOf(widths, rows), data, ends);
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public String getRow(int row) {
+        // the header is kept verbatim, other rows are rebuilt from their values
+        return row == 0 ? firstLine : parser.format(getValues(row, parser));
+    }
+
+    @Override
+    public String[] getValues(int row, RowParser rowParser) {
+        String[] values = new String[widths[row]];
+        for (int c = 0; c < values.length; c++) {
+            int start = row == 0 ? 0 : ends[c][row - 1];
+            values[c] = new String(data[c], start, ends[c][row] - start);
+        }
+        return values;
+    }
+
+    @Override
+    public String[] getValues(int row, RowParser rowParser, ColumnProjection projection) {
+        // values are stored split, only the projected ones are copied
+        String[] values = new String[projection.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getValue(row, projection.getColumn(i), rowParser);
+        }
+        return values;
+    }
+
+    @Override
+    public String getValue(int row, int column, RowParser rowParser) {
+        if (column >= widths[row]) {
+            return null;
+        }
+        int start = row == 0 ? 0 : ends[column][row - 1];
+        return new String(data[column], start, ends[column][row] - start);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release, the arrays go with the store
+    }
+}
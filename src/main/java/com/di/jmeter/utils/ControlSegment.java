@@ -0,0 +1,236 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Small memory mapped file holding the shared Unique cursor of a dataset and the chunk leases of its threads,
+ * so that several JMeter processes of the same host hand out each row once, without any network service.
+ * <p>
+ * Every slot is a long read and updated while holding a lock of its byte range in the file, which excludes
+ * the other processes, and the monitor of the segment, which excludes the other threads of the process.
+ * The processes mapping the same file see the updates through the shared mapping. Locking is a system call,
+ * so the slots are only locked to lease or steal chunks of rows, never to take a single row. The file is laid out as:
+ * <ul>
+ * <li>slot 0: magic number</li>
+ * <li>slot 1: hash of the run id, a file left by another run is reset</li>
+ * <li>slot 2: number of data rows, every process must serve the same rows</li>
+ * <li>slot 3: rows leased so far, over all the passes ({@link #CURSOR})</li>
+ * <li>slot 4: number of lease slots handed out, its lock guards the owner flags</li>
+ * <li>slots 8 and above: one packed {@link ChunkLease} state per lease slot</li>
+ * <li>followed by one owner flag per lease slot, 0 once released</li>
+ * </ul>
+ * A released lease slot keeps its rows, the next thread registering takes them over with the slot.
+ * One segment per control file is opened in a process.
+ */
+final class ControlSegment {
+
+    static final int CURSOR = 3;
+    private static final int MAGIC = 0;
+    private static final int RUN = 1;
+    private static final int ROWS = 2;
+    private static final int LEASES = 4;
+    private static final int FIRST_LEASE = 8;
+    private static final long MAGIC_VALUE = 0x4543535643544C32L; // ECSVCTL2
+
+    private final File file;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private ControlSegment(File file, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps the control file, creating it or resetting it when it was left by another run.
+     * The check and the reset hold an exclusive lock of the file, so only the first process of a run resets it.
+     *
+     * @param file the control file
+     * @param runId - identifier shared by the processes of the run
+     * @param rows - number of data rows of the dataset
+     * @param capacity - number of lease slots
+     * @return the mapped segment
+     * @throws IOException when the file cannot be mapped, or another process of the run serves a different number of rows
+     */
+    static ControlSegment open(File file, String runId, long rows, int capacity) throws IOException {
+        long runHash = hash(runId);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.lock();
+            try {
+                long size = (long) (FIRST_LEASE + 2 * capacity) * Long.BYTES;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (buffer.getLong(MAGIC) != MAGIC_VALUE || buffer.getLong(RUN * Long.BYTES) != runHash) {
+                    for (int slot = 0; slot < FIRST_LEASE + 2 * capacity; slot++) {
+                        buffer.putLong(slot * Long.BYTES, 0);
+                    }
+                    buffer.putLong(ROWS * Long.BYTES, rows);
+                    buffer.putLong(RUN * Long.BYTES, runHash);
+                    buffer.putLong(MAGIC * Long.BYTES, MAGIC_VALUE);
+                } else if (buffer.getLong(ROWS * Long.BYTES) != rows) {
+                    throw new IOException("Control file " + file + " is used by a process serving "
+                            + buffer.getLong(ROWS * Long.BYTES) + " rows instead of " + rows);
+                }
+                return new ControlSegment(file, capacity, channel, buffer);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a lease slot released by another thread, or a new one.
+     *
+     * @return the slot, -1 if all the slots are taken
+     */
+    int allocateLease() {
+        return (int) locked(LEASES, handedOut -> {
+            for (int slot = FIRST_LEASE; slot < FIRST_LEASE + handedOut; slot++) {
+                int owner = ownerIndex(slot);
+                if (buffer.getLong(owner) == 0) {
+                    buffer.putLong(owner, 1);
+                    return slot;
+                }
+            }
+            if (handedOut >= capacity) {
+                return -1;
+            }
+            buffer.putLong(LEASES * Long.BYTES, handedOut + 1);
+            buffer.putLong(ownerIndex(FIRST_LEASE + (int) handedOut), 1);
+            return FIRST_LEASE + handedOut;
+        });
+    }
+
+    /**
+     * Releases a lease slot of a thread which stopped taking rows. The rows left in it can still be stolen,
+     * and go to the next thread taking the slot.
+     *
+     * @param slot - slot returned by {@link #allocateLease()}
+     */
+    void releaseLease(int slot) {
+        locked(LEASES, handedOut -> {
+            buffer.putLong(ownerIndex(slot), 0);
+            return handedOut;
+        });
+    }
+
+    /**
+     * @return the first slot following the lease slots handed out so far
+     */
+    int leaseEnd() {
+        return FIRST_LEASE + (int) Math.min(capacity, get(LEASES));
+    }
+
+    static int firstLease() {
+        return FIRST_LEASE;
+    }
+
+    /**
+     * Reads a slot without locking it, for estimates only: the value may be stale or being updated.
+     *
+     * @param slot - the slot to read
+     * @return the value of the slot
+     */
+    long peek(int slot) {
+        return buffer.getLong(slot * Long.BYTES);
+    }
+
+    long get(int slot) {
+        return getAndUpdate(slot, LongUnaryOperator.identity());
+    }
+
+    void set(int slot, long value) {
+        getAndUpdate(slot, current -> value);
+    }
+
+    boolean compareAndSet(int slot, long expect, long update) {
+        return getAndUpdate(slot, current -> current == expect ? update : current) == expect;
+    }
+
+    /**
+     * Updates a slot atomically across the threads and the processes.
+     *
+     * @param slot - the slot to update
+     * @param function - computes the new value of the slot from its current value, without side effects
+     * @return the previous value of the slot
+     */
+    long getAndUpdate(int slot, LongUnaryOperator function) {
+        int index = slot * Long.BYTES;
+        return locked(slot, current -> {
+            long update = function.applyAsLong(current);
+            if (update != current) {
+                buffer.putLong(index, update);
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Runs an operation on a slot while holding the lock of the slot.
+     *
+     * @param operation - receives the current value of the slot
+     * @return the result of the operation
+     */
+    private long locked(int slot, LongUnaryOperator operation) {
+        int index = slot * Long.BYTES;
+        // an interrupt during the lock would close the channel for every thread, it is deferred until the lock is released
+        boolean interrupted = Thread.interrupted();
+        try {
+            synchronized (this) {
+                FileLock lock = channel.lock(index, Long.BYTES, false);
+                try {
+                    return operation.applyAsLong(buffer.getLong(index));
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not lock slot " + slot + " of " + file, e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private int ownerIndex(int slot) {
+        return (capacity + slot) * Long.BYTES;
+    }
+
+    /**
+     * Closes the control file, the segment must not be used afterwards.
+     *
+     * @throws IOException when closing the file fails
+     */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private static long hash(String value) {
+        long hash = 1125899906842597L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package com.di.jmeter.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reusable CSV tokenizer recording the boundaries of the fields of a line instead of copying them.
+ * <p>
+ * A tokenizer is confined to one thread (see {@link #forCurrentThread()}) and reused for every line, so
+ * tokenizing allocates nothing; Strings are only built by {@link #get(int)} for the fields actually used.
+ * Quoted data follows the rules of {@link FileServerExtended#csvReadLine(String, char)}, plain data
+ * the rules of {@code JOrphanUtils.split(line, delimiter, false)}.
+ */
+public final class CsvTokenizer {
+
+    private static final char QUOTING_CHAR = '"';
+    private static final ThreadLocal<CsvTokenizer> TOKENIZERS = ThreadLocal.withInitial(CsvTokenizer::new);
+
+    private enum ParserState {
+        INITIAL,
+        PLAIN,
+        QUOTED,
+        EMBEDDEDQUOTE
+    }
+
+    private String source;
+    private int count;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    // true when the field contains doubled quotes to collapse
+    private boolean[] escaped = new boolean[16];
+    private char[] scratch = new char[64];
+
+    /**
+     * @return the tokenizer of the calling thread
+     */
+    public static CsvTokenizer forCurrentThread() {
+        return TOKENIZERS.get();
+    }
+
+    /**
+     * Splits a line on a delimiter string, empty fields are kept but an empty line has no field.
+     *
+     * @param line the line to split
+     * @param delimiter the delimiter (may be more than one character)
+     * @param limit - maximum number of fields to record, the rest of the line is not scanned
+     * @return the number of fields recorded
+     */
+    public int split(String line, String delimiter, int limit) {
+        reset(line);
+        if (delimiter.isEmpty()) {
+            add(0, line.length(), false);
+            return count;
+        }
+        if (line.isEmpty()) {
+            return count;
+        }
+        int from = 0;
+        int spot;
+        while (count < limit && (spot = line.indexOf(delimiter, from)) >= 0) {
+            add(from, spot, false);
+            from = spot + delimiter.length();
+        }
+        if (count < limit) {
+            add(from, line.length(), false);
+        }
+        return count;
+    }
+
+    /**
+     * Splits a line into fields according to the delimiter, taking note of quoted strings.
+     * <p>
+     * Handles DOS (CRLF), Unix (LF), and Mac (CR) line-endings equally.
+     * A blank line - or a quoted blank line - both return a single empty field.
+     *
+     * @param line the line to split
+     * @param delimiter delimiter (e.g. comma)
+     * @param limit - maximum number of fields to record, the rest of the line is not scanned
+     * @return the number of fields recorded, 0 if the line is empty
+     * @throws IOException for unexpected quote characters
+     */
+    public int tokenize(String line, char delimiter, int limit) throws IOException {
+        reset(line);
+        int index = 0;
+        int length = line.length();
+        ParserState state = ParserState.INITIAL;
+        int start = 0;
+        boolean quotedField = false;
+        boolean quotes = false;
+        boolean push = false;
+        while (index < length && count < limit) {
+            push = false;
+            char ch = line.charAt(index++);
+            switch (state) {
+                case INITIAL:
+                    if (ch == QUOTING_CHAR) {
+                        state = ParserState.QUOTED;
+                        start = index;
+                        quotedField = true;
+                    } else if (isDelimOrEOL(delimiter, ch)) {
+                        start = index - 1;
+                        push = true;
+                    } else {
+                        start = index - 1;
+                        state = ParserState.PLAIN;
+                    }
+                    break;
+                case PLAIN:
+                    if (ch == QUOTING_CHAR) {
+                        throw new IOException("Cannot have quote-char in plain field:[" + line.substring(start, index) + "]");
+                    } else if (isDelimOrEOL(delimiter, ch)) {
+                        push = true;
+                        state = ParserState.INITIAL;
+                    }
+                    break;
+                case QUOTED:
+                    if (ch == QUOTING_CHAR) {
+                        state = ParserState.EMBEDDEDQUOTE;
+                    }
+                    break;
+                case EMBEDDEDQUOTE:
+                    if (ch == QUOTING_CHAR) {
+                        quotes = true; // doubled quote => quote
+                        state = ParserState.QUOTED;
+                    } else if (isDelimOrEOL(delimiter, ch)) {
+                        push = true;
+                        state = ParserState.INITIAL;
+                    } else {
+                        throw new IOException("Cannot have single quote-char in quoted field:["
+                                + unescape(line, start, index - 2) + QUOTING_CHAR + "]");
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected state " + state);
+            }
+            if (push) {
+                // a quoted field ends before its closing quote, a plain one before the delimiter
+                add(start, quotedField ? index - 2 : index - 1, quotes);
+                quotedField = false;
+                quotes = false;
+                if (ch == '\r' && index < length && line.charAt(index) == '\n') {
+                    index++; // skip the '\n' character after '\r'
+                }
+            }
+        }
+        if (count >= limit) {
+            return count;
+        }
+        if (state == ParserState.QUOTED) {
+            throw new IOException("Missing trailing quote-char in quoted field:[\"" + unescape(line, start, length) + "\"]");
+        }
+        // Do we have some data, or a trailing empty field?
+        if (state == ParserState.PLAIN) {
+            add(start, length, false);
+        } else if (state == ParserState.EMBEDDEDQUOTE) {
+            add(start, length - 1, quotes);
+        } else if (push) {
+            add(length, length, false);
+        }
+        return count;
+    }
+
+    private static boolean isDelimOrEOL(char delim, int ch) {
+        return ch == delim || ch == '\n' || ch == '\r';
+    }
+
+    /**
+     * @return the number of fields recorded by the last split or tokenize call
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Builds the value of a field of the last tokenized line.
+     *
+     * @param field - field number (starts from 0)
+     * @return the value of the field
+     */
+    public String get(int field) {
+        if (escaped[field]) {
+            return unescape(source, starts[field], ends[field]);
+        }
+        return source.substring(starts[field], ends[field]);
+    }
+
+    private String unescape(String line, int start, int end) {
+        if (scratch.length < end - start) {
+            scratch = new char[end - start];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char ch = line.charAt(i);
+            scratch[length++] = ch;
+            if (ch == QUOTING_CHAR && i + 1 < end && line.charAt(i + 1) == QUOTING_CHAR) {
+                i++;
+            }
+        }
+        return new String(scratch, 0, length);
+    }
+
+    private void reset(String line) {
+        source = line;
+        count = 0;
+    }
+
+    private void add(int start, int end, boolean quotes) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count << 1);
+            ends = Arrays.copyOf(ends, count << 1);
+            escaped = Arrays.copyOf(escaped, count << 1);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        escaped[count] = quotes;
+        count++;
+    }
+}
@@ -0,0 +1,185 @@
+package com.di.jmeter.utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime metrics of a dataset file, recorded by the file server and the elements reading it when
+ * extendedcsv.metrics is set. All the aliases of the file record into the same metrics, so a file shared
+ * per thread holds one set of histograms, not one per thread.
+ * <p>
+ * Counters are striped and histograms lock free, so thousands of threads record without contending with each
+ * other more than they already do on the rows. The index build time is the one of the last row store opened
+ * for the file.
+ */
+public final class DatasetMetrics implements DatasetMetricsMXBean {
+
+    private final String dataset;
+    private final LongAdder rowsServed = new LongAdder();
+    private final LongAdder wrapArounds = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile long indexBuildNanos;
+    private final LatencyHistogram fetch = new LatencyHistogram();
+    private final LatencyHistogram wait = new LatencyHistogram();
+    private final LatencyHistogram threadSetup = new LatencyHistogram();
+
+    DatasetMetrics(String dataset) {
+        this.dataset = dataset;
+    }
+
+    /**
+     * @param nanos - time taken to fetch the row, waits included
+     */
+    void served(long nanos) {
+        rowsServed.increment();
+        fetch.record(nanos);
+    }
+
+    void wrapped() {
+        wrapArounds.increment();
+    }
+
+    void read(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * @param nanos - time spent blocked on the lock of the file or its row store, a prefetched row or an appended row
+     */
+    void waited(long nanos) {
+        wait.record(nanos);
+    }
+
+    /**
+     * @param nanos - time taken to build the row store of the dataset
+     * @param bytes - bytes read to build it
+     */
+    void indexBuilt(long nanos, long bytes) {
+        indexBuildNanos = nanos;
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Records the time a thread spent preparing its reads of the dataset (reservation, counting, leases).
+     *
+     * @param nanos - setup time of the thread
+     */
+    public void threadSetup(long nanos) {
+        threadSetup.record(nanos);
+    }
+
+    @Override
+    public String getDataset() {
+        return dataset;
+    }
+
+    @Override
+    public long getRowsServed() {
+        return rowsServed.sum();
+    }
+
+    @Override
+    public long getWrapArounds() {
+        return wrapArounds.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getIndexBuildMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(indexBuildNanos);
+    }
+
+    @Override
+    public double getFetchMeanMicros() {
+        long count = fetch.getCount();
+        return count == 0 ? 0 : fetch.getTotal() / 1000.0 / count;
+    }
+
+    @Override
+    public long getFetchP50Micros() {
+        return micros(fetch.getPercentile(50));
+    }
+
+    @Override
+    public long getFetchP99Micros() {
+        return micros(fetch.getPercentile(99));
+    }
+
+    @Override
+    public long getFetchP999Micros() {
+        return micros(fetch.getPercentile(99.9));
+    }
+
+    @Override
+    public long getFetchMaxMicros() {
+        return micros(fetch.getMax());
+    }
+
+    @Override
+    public long getWaitCount() {
+        return wait.getCount();
+    }
+
+    @Override
+    public long getWaitTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(wait.getTotal());
+    }
+
+    @Override
+    public long getWaitP99Micros() {
+        return micros(wait.getPercentile(99));
+    }
+
+    @Override
+    public long getWaitMaxMicros() {
+        return micros(wait.getMax());
+    }
+
+    @Override
+    public long getThreadSetupCount() {
+        return threadSetup.getCount();
+    }
+
+    @Override
+    public long getThreadSetupP99Micros() {
+        return micros(threadSetup.getPercentile(99));
+    }
+
+    @Override
+    public long getThreadSetupMaxMicros() {
+        return micros(threadSetup.getMax());
+    }
+
+    @Override
+    public void reset() {
+        rowsServed.reset();
+        wrapArounds.reset();
+        bytesRead.reset();
+        fetch.reset();
+        wait.reset();
+        threadSetup.reset();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * @return one line summary of the metrics, for the end of test log
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %d rows served, %d wrap-arounds, %d bytes read, index built in %d ms,"
+                        + " fetch mean %.1f us p50 %d us p99 %d us p99.9 %d us max %d us,"
+                        + " %d waits for %d ms p99 %d us max %d us, %d thread setups p99 %d us max %d us",
+                dataset, getRowsServed(), getWrapArounds(), getBytesRead(), getIndexBuildMillis(),
+                getFetchMeanMicros(), getFetchP50Micros(), getFetchP99Micros(), getFetchP999Micros(),
+                getFetchMaxMicros(), getWaitCount(), getWaitTotalMillis(), getWaitP99Micros(), getWaitMaxMicros(),
+                getThreadSetupCount(), getThreadSetupP99Micros(), getThreadSetupMaxMicros());
+    }
+}
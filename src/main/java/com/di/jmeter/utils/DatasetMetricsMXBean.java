@@ -0,0 +1,58 @@
+package com.di.jmeter.utils;
+
+/**
+ * Runtime metrics of a dataset file, registered by the file server under
+ * {@code com.di.jmeter:type=ExtendedCsvDataSet,name=<filename>} while the file is reserved.
+ * The aliases of the file shared per thread group or per thread record into the same metrics.
+ * Durations are given in microseconds, except the index build time.
+ */
+public interface DatasetMetricsMXBean {
+
+    /**
+     * @return the filename of the dataset, as given in the test plan
+     */
+    String getDataset();
+
+    long getRowsServed();
+
+    /**
+     * @return number of times a cursor of the dataset went back to its first row
+     */
+    long getWrapArounds();
+
+    /**
+     * @return bytes read from the files to index or load them, and by the stream reads of non indexed files
+     */
+    long getBytesRead();
+
+    long getIndexBuildMillis();
+
+    double getFetchMeanMicros();
+
+    long getFetchP50Micros();
+
+    long getFetchP99Micros();
+
+    long getFetchP999Micros();
+
+    long getFetchMaxMicros();
+
+    /**
+     * @return number of times a thread waited for the lock of the file, for a shared cursor or for a prefetched row
+     */
+    long getWaitCount();
+
+    long getWaitTotalMillis();
+
+    long getWaitP99Micros();
+
+    long getWaitMaxMicros();
+
+    long getThreadSetupCount();
+
+    long getThreadSetupP99Micros();
+
+    long getThreadSetupMaxMicros();
+
+    void reset();
+}
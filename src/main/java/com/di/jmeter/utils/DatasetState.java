@@ -0,0 +1,267 @@
+package com.di.jmeter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Runtime state of a dataset (reserved alias): its row count and the shared cursors of the threads reading it.
+ * <p>
+ * In Unique mode each thread registers once and gets a {@link ChunkLease}, renewed from a shared atomic
+ * row counter, so the rows are spread on demand whatever the number, names and pace of the threads.
+ * Row numbers given to the leases and permutations are relative to the first data row.
+ * The counter and the leases may live in a {@link ControlSegment} shared with other processes of the host.
+ */
+public final class DatasetState {
+
+    private static final Logger log = LoggerFactory.getLogger(DatasetState.class);
+    private static final int SHARED_LEASES = 4096;
+
+    private final String alias;
+    private final long seed;
+    private volatile long rowCount;
+    private volatile int firstRow;
+    private volatile boolean counted;
+    // shuffled order of the rows and number of rows drawn from it, shared by the threads in Random Unique mode
+    private volatile RowPermutation permutation;
+    private final AtomicLong draws = new AtomicLong();
+    // draw table of the rows in Weighted Random mode, built once for all the threads
+    private volatile WeightTable weights;
+    // Unique mode: rows leased so far and the leases of the threads, scanned by the threads stealing rows
+    private final AtomicLong leased = new AtomicLong();
+    private final Queue<ChunkLease> leases = new ConcurrentLinkedQueue<>();
+    // Unique mode across processes: control file and run id, the segment is mapped once the rows are counted
+    private File controlFile;
+    private String runId;
+    private volatile ControlSegment control;
+    // Unique cursor saved by a previous run, applied to the control segment once mapped
+    private volatile long resumedLeased;
+
+    DatasetState(String alias, long seed) {
+        this.alias = alias;
+        this.seed = seed;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return number of data rows, excluding the header line
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return line number of the first data row, 1 when the file has a header line
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    void setRows(long rowCount, int firstRow) {
+        this.firstRow = firstRow;
+        this.rowCount = rowCount;
+        RowPermutation current = permutation;
+        if (current == null || current.size() != rowCount) {
+            // threads racing here build equal permutations from the same seed
+            permutation = new RowPermutation(rowCount, seed);
+        }
+        counted = true;
+    }
+
+    /**
+     * @return true once the rows were counted
+     */
+    boolean isCounted() {
+        return counted;
+    }
+
+    /**
+     * @return the shuffled order of the data rows (positions relative to the first data row)
+     */
+    public RowPermutation getPermutation() {
+        return permutation;
+    }
+
+    /**
+     * @return the weight table of the data rows (positions relative to the first data row), null until built
+     */
+    public WeightTable getWeights() {
+        return weights;
+    }
+
+    void setWeights(WeightTable weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Takes the next position of the shuffled order, lock free.
+     *
+     * @return the number of rows drawn before this one, over all the passes
+     */
+    public long nextDraw() {
+        return draws.getAndIncrement();
+    }
+
+    /**
+     * Registers a thread reading the dataset in Unique mode.
+     *
+     * @param chunkSize - number of rows the thread leases at once
+     * @return the lease of the thread, empty until its first row is taken
+     */
+    public ChunkLease register(int chunkSize) {
+        ControlSegment segment = getControl();
+        if (segment != null) {
+            int slot = segment.allocateLease();
+            if (slot >= 0) {
+                return new ChunkLease(chunkSize, segment, slot);
+            }
+            // every slot is held by a live thread, the rows of this one are still taken from the shared counter
+            log.warn("No lease slot left in {}, a thread of {} takes its rows without sharing them", segment, alias);
+        }
+        ChunkLease lease = new ChunkLease(chunkSize);
+        leases.add(lease);
+        return lease;
+    }
+
+    /**
+     * Unregisters the lease of a thread which stopped reading the dataset. A lease of a control segment frees
+     * its slot for the next thread, keeping the rows left in it; a local lease is dropped once exhausted.
+     *
+     * @param lease the lease returned by {@link #register(int)}
+     */
+    public void unregister(ChunkLease lease) {
+        if (!lease.release() && lease.remaining() == 0) {
+            leases.remove(lease);
+        }
+    }
+
+    /**
+     * Moves the Unique counter and leases to a control file, shared by the processes with the same run id.
+     * Must be called before the first registration, later calls are ignored.
+     *
+     * @param controlFile the control file of the dataset
+     * @param runId - identifier shared by the processes of the run
+     */
+    synchronized void shareAcrossProcesses(File controlFile, String runId) {
+        if (this.runId == null) {
+            this.controlFile = controlFile;
+            this.runId = runId;
+        }
+    }
+
+    /**
+     * Maps the control file of a dataset shared across processes ahead of the first registration,
+     * once the rows are counted. Does nothing when the dataset is not shared.
+     */
+    void mapControl() {
+        getControl();
+    }
+
+    private ControlSegment getControl() {
+        ControlSegment segment = control;
+        if (segment == null && controlFile != null) {
+            synchronized (this) {
+                segment = control;
+                if (segment == null && controlFile != null) {
+                    try {
+                        segment = ControlSegment.open(controlFile, runId, rowCount, SHARED_LEASES);
+                        // only the first process of the run moves the fresh counter
+                        segment.compareAndSet(ControlSegment.CURSOR, 0, resumedLeased);
+                        log.info("Unique rows of {} are shared through {}", alias, controlFile);
+                        control = segment;
+                    } catch (IOException e) {
+                        log.error("Unique rows of {} are not shared with the other processes: {}", alias, e.getMessage());
+                        controlFile = null;
+                    }
+                }
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Takes the next chunk of the shared Unique counter, lock free. A chunk never crosses the end of a pass
+     * over the rows, so every pass hands out each row once even when the threads lease chunks of different sizes.
+     *
+     * @param size - number of rows wanted
+     * @return the number of rows leased before the chunk over all the passes, the chunk starts at its remainder
+     * by the row count and holds up to size rows, cut at the end of the pass
+     */
+    long nextChunk(int size) {
+        long rows = rowCount;
+        ControlSegment segment = control;
+        LongUnaryOperator chunk = taken -> taken + Math.min(size, rows - taken % rows);
+        if (segment == null) {
+            return leased.getAndUpdate(chunk);
+        }
+        long taken = segment.getAndUpdate(ControlSegment.CURSOR, chunk);
+        // the local counter follows the shared one, for the checks which must not lock the control file
+        leased.accumulateAndGet(chunk.applyAsLong(taken), Math::max);
+        return taken;
+    }
+
+    /**
+     * @return the number of rows leased so far in Unique mode, over all the passes
+     */
+    long getLeased() {
+        ControlSegment segment = control;
+        return segment == null ? leased.get() : segment.get(ControlSegment.CURSOR);
+    }
+
+    /**
+     * @return the number of rows leased so far in Unique mode as last seen by this process, without locking
+     */
+    long getLeasedSeen() {
+        return leased.get();
+    }
+
+    /**
+     * Moves the Unique counter past the rows leased by a previous run, before the first registration.
+     *
+     * @param rows - number of rows leased by the previous run
+     */
+    void resumeLeased(long rows) {
+        resumedLeased = rows;
+        leased.accumulateAndGet(rows, Math::max);
+    }
+
+    /**
+     * Closes the control file of a dataset shared across processes.
+     */
+    synchronized void close() {
+        ControlSegment segment = control;
+        if (segment != null) {
+            control = null;
+            controlFile = null;
+            try {
+                segment.close();
+            } catch (IOException e) {
+                log.warn("Could not close {}: {}", segment, e.toString());
+            }
+        }
+    }
+
+    Iterable<ChunkLease> getLeases() {
+        ControlSegment segment = control;
+        if (segment == null) {
+            return leases;
+        }
+        // the leases of every process, plus the local ones of threads which found no free slot
+        List<ChunkLease> all = new ArrayList<>(leases);
+        for (int slot = ControlSegment.firstLease(); slot < segment.leaseEnd(); slot++) {
+            all.add(new ChunkLease(1, segment, slot));
+        }
+        return all;
+    }
+}
@@ -0,0 +1,162 @@
+package com.di.jmeter.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converts a CSV file into the precompiled binary dataset format (.ecsv), see {@link EcsvFormat}.
+ * <p>
+ * The lines are split once here, so the datasets reading the converted file neither scan nor tokenize it.
+ * Only the JDK is needed to run it:
+ * <pre>
+ * java -jar di-extended-csv.jar [-d delimiter] [-q] [-e encoding] input.csv [output.ecsv]
+ * </pre>
+ */
+public final class EcsvConverter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private EcsvConverter() {
+    }
+
+    public static void main(String[] args) {
+        String delimiter = ",";
+        boolean quotedData = false;
+        Charset charset = StandardCharsets.UTF_8;
+        String input = null;
+        String output = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-d":
+                        delimiter = "\\t".equals(args[++i]) ? "\t" : args[i];
+                        break;
+                    case "-q":
+                        quotedData = true;
+                        break;
+                    case "-e":
+                        charset = Charset.forName(args[++i]);
+                        break;
+                    default:
+                        if (input == null) {
+                            input = args[i];
+                        } else if (output == null) {
+                            output = args[i];
+                        } else {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                }
+            }
+            if (input == null) {
+                throw new IllegalArgumentException("Missing input file");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage()); //NOSONAR
+            System.err.println("Usage: java -jar di-extended-csv.jar [-d delimiter] [-q] [-e encoding] input.csv [output.ecsv]"); //NOSONAR
+            System.exit(2);
+            return;
+        }
+        if (output == null) {
+            int dot = input.lastIndexOf('.');
+            output = (dot > input.lastIndexOf(File.separatorChar) ? input.substring(0, dot) : input) + ".ecsv";
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int rows = convert(new File(input), charset, new RowParser(delimiter, quotedData), new File(output));
+            System.out.println("Converted " + rows + " rows of " + input + " to " + output + " in " //NOSONAR
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            System.err.println("Conversion of " + input + " failed: " + e.getMessage()); //NOSONAR
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Splits every line of the input and writes its values to the output in the binary format.
+     * A leading UTF-8 byte order mark is dropped.
+     *
+     * @param input the CSV file
+     * @param charset the encoding of the CSV file
+     * @param parser the parser splitting the lines, its delimiter is kept to rebuild the lines
+     * @param output the .ecsv file to write, replaced if it exists
+     * @return the number of rows written
+     * @throws IOException when reading, parsing or writing fails
+     */
+    public static int convert(File input, Charset charset, RowParser parser, File output) throws IOException {
+        if (parser.getDelimiter().getBytes(StandardCharsets.UTF_8).length > EcsvFormat.MAX_DELIMITER_BYTES) {
+            throw new IOException("Delimiter too long for the ecsv format: " + parser.getDelimiter());
+        }
+        File columnTable = File.createTempFile("ecsv-columns", ".tmp", output.getAbsoluteFile().getParentFile());
+        File rowTable = File.createTempFile("ecsv-rows", ".tmp", output.getAbsoluteFile().getParentFile());
+        try {
+            int rows = 0;
+            long values = 0;
+            long payload = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        Files.newInputStream(input.toPath()), charset), BUFFER_SIZE);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(output.toPath()), BUFFER_SIZE);
+                 DataOutputStream columns = new DataOutputStream(new BufferedOutputStream(
+                         Files.newOutputStream(columnTable.toPath()), BUFFER_SIZE));
+                 DataOutputStream rowEntries = new DataOutputStream(new BufferedOutputStream(
+                         Files.newOutputStream(rowTable.toPath()), BUFFER_SIZE))) {
+                out.write(new byte[EcsvFormat.HEADER_SIZE]);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (rows == 0 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                        line = line.substring(1);
+                    }
+                    if (rows == Integer.MAX_VALUE) {
+                        throw new IOException("Too many rows in " + input);
+                    }
+                    rowEntries.writeLong(payload);
+                    rowEntries.writeLong(values);
+                    int end = 0;
+                    for (String value : parser.parse(line)) {
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        out.write(bytes);
+                        end += bytes.length;
+                        columns.writeInt(end);
+                        values++;
+                    }
+                    payload += end;
+                    rows++;
+                }
+                rowEntries.writeLong(payload);
+                rowEntries.writeLong(values);
+            }
+            long columnTableOffset = EcsvFormat.HEADER_SIZE + payload;
+            long rowTableOffset = columnTableOffset + values * EcsvFormat.COLUMN_ENTRY_SIZE;
+            EcsvFormat format = new EcsvFormat(rows, values, parser.getDelimiter(), parser.isQuotedData(),
+                    EcsvFormat.HEADER_SIZE, columnTableOffset, rowTableOffset);
+            try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE)) {
+                append(channel, columnTable);
+                append(channel, rowTable);
+                channel.write(format.write(), 0);
+            }
+            return rows;
+        } finally {
+            Files.deleteIfExists(columnTable.toPath());
+            Files.deleteIfExists(rowTable.toPath());
+        }
+    }
+
+    private static void append(FileChannel channel, File table) throws IOException {
+        try (FileChannel in = FileChannel.open(table.toPath(), StandardOpenOption.READ)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, channel.position(channel.size()));
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.di.jmeter.utils;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the precompiled binary dataset format (.ecsv).
+ * <p>
+ * A file holds, in this order:
+ * <ul>
+ * <li>a {@value #HEADER_SIZE} bytes header, described by this class</li>
+ * <li>the payload: the UTF-8 bytes of the values of every row, without delimiters nor quotes</li>
+ * <li>the column table: for each value, an int giving its end relative to the start of its row in the payload</li>
+ * <li>the row table: {@value #ROW_ENTRY_SIZE} bytes per row, the payload offset of the row and the index of its
+ * first entry in the column table, plus a closing entry</li>
+ * </ul>
+ * All numbers are big-endian.
+ */
+final class EcsvFormat {
+
+    static final int MAGIC = 0x45435356; // ECSV
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int ROW_ENTRY_SIZE = 16;
+    static final int COLUMN_ENTRY_SIZE = 4;
+    static final int MAX_DELIMITER_BYTES = 14;
+    private static final int QUOTED_DATA = 1;
+
+    private final int rows;
+    private final long values;
+    private final String delimiter;
+    private final boolean quotedData;
+    private final long payloadOffset;
+    private final long columnTableOffset;
+    private final long rowTableOffset;
+
+    EcsvFormat(int rows, long values, String delimiter, boolean quotedData, long payloadOffset,
+               long columnTableOffset, long rowTableOffset) {
+        this.rows = rows;
+        this.values = values;
+        this.delimiter = delimiter;
+        this.quotedData = quotedData;
+        this.payloadOffset = payloadOffset;
+        this.columnTableOffset = columnTableOffset;
+        this.rowTableOffset = rowTableOffset;
+    }
+
+    static EcsvFormat read(ByteBuffer header) throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not an ecsv file");
+        }
+        int version = header.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported ecsv version " + version + ", expected " + VERSION);
+        }
+        byte[] delimiterBytes = new byte[header.getShort(48)];
+        if (delimiterBytes.length > MAX_DELIMITER_BYTES) {
+            throw new IOException("Corrupted ecsv header, delimiter of " + delimiterBytes.length + " bytes");
+        }
+        ByteBuffer view = header.duplicate();
+        ((Buffer) view).position(50);
+        view.get(delimiterBytes);
+        return new EcsvFormat(header.getInt(8), header.getLong(40), new String(delimiterBytes, StandardCharsets.UTF_8),
+                (header.getInt(12) & QUOTED_DATA) != 0, header.getLong(16), header.getLong(24), header.getLong(32));
+    }
+
+    ByteBuffer write() {
+        byte[] delimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(quotedData ? QUOTED_DATA : 0)
+                .putLong(payloadOffset).putLong(columnTableOffset).putLong(rowTableOffset).putLong(values)
+                .putShort((short) delimiterBytes.length).put(delimiterBytes);
+        ((Buffer) header).clear();
+        return header;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    long getValues() {
+        return values;
+    }
+
+    String getDelimiter() {
+        return delimiter;
+    }
+
+    boolean isQuotedData() {
+        return quotedData;
+    }
+
+    long getPayloadOffset() {
+        return payloadOffset;
+    }
+
+    long getColumnTableOffset() {
+        return columnTableOffset;
+    }
+
+    long getRowTableOffset() {
+        return rowTableOffset;
+    }
+}
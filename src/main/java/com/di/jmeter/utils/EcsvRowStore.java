@@ -0,0 +1,263 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serves the rows of a precompiled binary dataset (.ecsv) written by {@link EcsvConverter}.
+ * <p>
+ * The offset tables stored in the file are mapped as they are, in segments of whole entries when they exceed the
+ * 2 GB limit of a mapping, so opening the store reads nothing but the header,
+ * and the values of a row are sliced out of the mapped payload without any tokenizing.
+ * The values were split when the file was converted, the parser of the dataset is not used,
+ * and {@link #getRow(int)} joins them back with the delimiter of the conversion.
+ * In a distributed test the rows (not bytes) are split evenly between the engines.
+ */
+public class EcsvRowStore implements RowStore {
+
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+    // 1 GB segments of the offset tables, a multiple of both entry sizes so no entry crosses a segment
+    private static final int TABLE_SEGMENT_SHIFT = 30;
+
+    private final RowParser format;
+    private final Table rowTable;
+    private final Table columnTable;
+    private final MappedByteBuffer[] segments;
+    // first row and payload offset of each segment
+    private final int[] segmentFirstRow;
+    private final long[] segmentOffset;
+    // rows of the partition: the header row first if kept, then count rows from firstRow
+    private final boolean header;
+    private final int firstRow;
+    private final int rows;
+
+    private EcsvRowStore(RowParser format, Table rowTable, Table columnTable,
+                         MappedByteBuffer[] segments, int[] segmentFirstRow, long[] segmentOffset,
+                         boolean header, int firstRow, int rows) {
+        this.format = format;
+        this.rowTable = rowTable;
+        this.columnTable = columnTable;
+        this.segments = segments;
+        this.segmentFirstRow = segmentFirstRow;
+        this.segmentOffset = segmentOffset;
+        this.header = header;
+        this.firstRow = firstRow;
+        this.rows = rows;
+    }
+
+    /**
+     * Maps the tables and the payload of the file.
+     *
+     * @param file the .ecsv file
+     * @param partition the share of the rows to serve
+     * @param keepHeader - true to serve the first row of the file even when it is not part of the partition
+     * @return the store of the partition, the header row first if kept
+     * @throws IOException when reading of the file fails or the file is not a supported binary dataset
+     */
+    public static EcsvRowStore open(File file, FilePartition partition, boolean keepHeader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(EcsvFormat.HEADER_SIZE);
+            while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+                // keep reading until the header is complete or EOF
+            }
+            if (head.hasRemaining()) {
+                throw new IOException("Truncated ecsv header in " + file);
+            }
+            EcsvFormat layout = EcsvFormat.read(head);
+            long rowTableSize = (layout.getRows() + 1L) * EcsvFormat.ROW_ENTRY_SIZE;
+            long columnTableSize = layout.getValues() * EcsvFormat.COLUMN_ENTRY_SIZE;
+            if (layout.getRowTableOffset() + rowTableSize > channel.size()) {
+                throw new IOException("Truncated ecsv file " + file);
+            }
+            Table rowTable = Table.map(channel, layout.getRowTableOffset(), rowTableSize);
+            Table columnTable = Table.map(channel, layout.getColumnTableOffset(), columnTableSize);
+
+            int total = layout.getRows();
+            int dataStart = keepHeader ? Math.min(1, total) : 0;
+            int dataRows = total - dataStart;
+            int from = dataStart + (int) ((long) dataRows * partition.getIndex() / partition.getCount());
+            int to = dataStart + (int) ((long) dataRows * (partition.getIndex() + 1) / partition.getCount());
+            boolean header = keepHeader && total > 0 && from > 0;
+
+            // map the payload in segments of whole rows, each under the 2 GB limit of a mapping
+            List<MappedByteBuffer> mapped = new ArrayList<>();
+            int[] firstRows = new int[1];
+            long[] offsets = new long[1];
+            int row = 0;
+            while (row < total) {
+                long start = payloadStart(rowTable, row);
+                int lo = row;
+                int hi = total - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (payloadStart(rowTable, mid + 1) - start <= MAX_SEGMENT_SIZE) {
+                        lo = mid;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+                long length = payloadStart(rowTable, lo + 1) - start;
+                if (length > MAX_SEGMENT_SIZE) {
+                    throw new IOException("Row " + row + " of " + file + " exceeds the maximum mapped size");
+                }
+                if (mapped.size() == firstRows.length) {
+                    firstRows = Arrays.copyOf(firstRows, firstRows.length << 1);
+                    offsets = Arrays.copyOf(offsets, offsets.length << 1);
+                }
+                firstRows[mapped.size()] = row;
+                offsets[mapped.size()] = start;
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, layout.getPayloadOffset() + start, length));
+                row = lo + 1;
+            }
+            MappedByteBuffer[] segments = mapped.toArray(new MappedByteBuffer[0]);
+            return new EcsvRowStore(new RowParser(layout.getDelimiter(), layout.isQuotedData()), rowTable, columnTable,
+                    segments, Arrays.copyOf(firstRows, segments.length), Arrays.copyOf(offsets, segments.length),
+                    header, from, (header ? 1 : 0) + to - from);
+        }
+    }
+
+    private static long payloadStart(Table rowTable, int row) {
+        return rowTable.getLong((long) row * EcsvFormat.ROW_ENTRY_SIZE);
+    }
+
+    private static long firstColumn(Table rowTable, int row) {
+        return rowTable.getLong((long) row * EcsvFormat.ROW_ENTRY_SIZE + Long.BYTES);
+    }
+
+    /**
+     * @return the end of a value relative to the start of its row
+     */
+    private int valueEnd(long value) {
+        return columnTable.getInt(value * EcsvFormat.COLUMN_ENTRY_SIZE);
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public String getRow(int row) {
+        return format.format(getValues(row, format));
+    }
+
+    @Override
+    public String[] getValues(int row, RowParser parser) {
+        int fileRow = fileRow(row);
+        long firstColumn = firstColumn(rowTable, fileRow);
+        String[] values = new String[(int) (firstColumn(rowTable, fileRow + 1) - firstColumn)];
+        ByteBuffer payload = payloadOf(fileRow);
+        int start = payload.position();
+        for (int i = 0; i < values.length; i++) {
+            int end = payload.position() + valueEnd(firstColumn + i);
+            values[i] = decode(payload, start, end);
+            start = end;
+        }
+        return values;
+    }
+
+    @Override
+    public String[] getValues(int row, RowParser parser, ColumnProjection projection) {
+        // values are stored split, only the projected ones are decoded
+        String[] values = new String[projection.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getValue(row, projection.getColumn(i), parser);
+        }
+        return values;
+    }
+
+    @Override
+    public String getValue(int row, int column, RowParser parser) {
+        int fileRow = fileRow(row);
+        long firstColumn = firstColumn(rowTable, fileRow);
+        if (column >= firstColumn(rowTable, fileRow + 1) - firstColumn) {
+            return null;
+        }
+        ByteBuffer payload = payloadOf(fileRow);
+        int start = payload.position() + (column == 0 ? 0 : valueEnd(firstColumn + column - 1));
+        int end = payload.position() + valueEnd(firstColumn + column);
+        return decode(payload, start, end);
+    }
+
+    private int fileRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + rows);
+        }
+        if (header) {
+            return row == 0 ? 0 : firstRow + row - 1;
+        }
+        return firstRow + row;
+    }
+
+    /**
+     * @return a private view of the segment holding the row, positioned at the start of the row
+     */
+    private ByteBuffer payloadOf(int fileRow) {
+        int segment = 0;
+        if (segments.length > 1) {
+            int idx = Arrays.binarySearch(segmentFirstRow, fileRow);
+            segment = idx >= 0 ? idx : -idx - 2;
+        }
+        // duplicate keeps the position private to the calling thread
+        ByteBuffer view = segments[segment].duplicate();
+        ((Buffer) view).position((int) (payloadStart(rowTable, fileRow) - segmentOffset[segment]));
+        return view;
+    }
+
+    private static String decode(ByteBuffer payload, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = payload.duplicate();
+        ((Buffer) view).limit(end).position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Offset table of the file, mapped in segments of {@code 1 << TABLE_SEGMENT_SHIFT} bytes.
+     */
+    private static final class Table {
+
+        private final ByteBuffer[] segments;
+
+        private Table(ByteBuffer[] segments) {
+            this.segments = segments;
+        }
+
+        static Table map(FileChannel channel, long offset, long size) throws IOException {
+            long segmentSize = 1L << TABLE_SEGMENT_SHIFT;
+            ByteBuffer[] segments = new ByteBuffer[(int) Math.max(1, (size + segmentSize - 1) >>> TABLE_SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = (long) i << TABLE_SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + from,
+                        Math.min(segmentSize, size - from));
+            }
+            return new Table(segments);
+        }
+
+        long getLong(long index) {
+            return segments[(int) (index >>> TABLE_SEGMENT_SHIFT)].getLong(segmentIndex(index));
+        }
+
+        int getInt(long index) {
+            return segments[(int) (index >>> TABLE_SEGMENT_SHIFT)].getInt(segmentIndex(index));
+        }
+
+        private static int segmentIndex(long index) {
+            return (int) (index & ((1L << TABLE_SEGMENT_SHIFT) - 1));
+        }
+    }
+
+    @Override
+    public void close() {
+        // mapped buffers cannot be unmapped explicitly on Java 8, they are released with the store
+    }
+}
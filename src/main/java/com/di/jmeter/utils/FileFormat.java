@@ -0,0 +1,44 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Format of a file of a dataset, detected once from its first bytes when the dataset is reserved.
+ */
+enum FileFormat {
+    /** Text lines */
+    TEXT,
+    /** Text lines compressed with gzip */
+    GZIP,
+    /** Precompiled binary dataset written by {@link EcsvConverter} */
+    ECSV;
+
+    /**
+     * @param file the file to check
+     * @return the format of the file, {@link #TEXT} if it cannot be read (reported when the file is opened)
+     */
+    static FileFormat detect(File file) {
+        byte[] head = new byte[4];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while (length < head.length && (read = in.read(head, length, head.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            return TEXT;
+        }
+        if (length >= 2 && head[0] == (byte) 0x1F && head[1] == (byte) 0x8B) {
+            return GZIP;
+        }
+        if (length == head.length && ByteBuffer.wrap(head).getInt() == EcsvFormat.MAGIC
+                && file.length() >= EcsvFormat.HEADER_SIZE) {
+            return ECSV;
+        }
+        return TEXT;
+    }
+}
@@ -0,0 +1,193 @@
+package com.di.jmeter.utils;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.jmeter.util.JMeterUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Share of the rows of the files served by one JMeter engine of a distributed test.
+ * <p>
+ * The bytes of a file are cut in node count ranges of equal size, moved forward to the next line start,
+ * so every line belongs to exactly one engine and an engine never reads the lines of the other ones.
+ * The header line of the file is kept by every engine.
+ */
+public final class FilePartition {
+
+    /** The whole file, used when the test is not partitioned */
+    public static final FilePartition WHOLE = new FilePartition(0, 1);
+
+    private final int index;
+    private final int count;
+
+    private FilePartition(int index, int count) {
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * @param index - index of the engine (starts from 0)
+     * @param count - number of engines
+     * @return the partition of the engine
+     */
+    public static FilePartition of(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid partition " + index + " of " + count);
+        }
+        return count == 1 ? WHOLE : new FilePartition(index, count);
+    }
+
+    /**
+     * Resolves the partition of this engine from the properties extendedcsv.node.index and extendedcsv.node.count,
+     * or else from the position of the engine in the remote_hosts list.
+     *
+     * @param host the engine name given to the test listeners in distributed runs (perhaps null)
+     * @return the partition of this engine, {@link #WHOLE} if none is configured
+     */
+    public static FilePartition resolve(String host) {
+        int count = JMeterUtils.getPropDefault("extendedcsv.node.count", 0);
+        if (count > 0) {
+            return of(JMeterUtils.getPropDefault("extendedcsv.node.index", 0), count);
+        }
+        String remoteHosts = JMeterUtils.getPropDefault("remote_hosts", "");
+        if (host != null && !remoteHosts.trim().isEmpty()) {
+            String[] hosts = remoteHosts.split(",");
+            for (int i = 0; i < hosts.length; i++) {
+                String remoteHost = hosts[i].trim();
+                if (remoteHost.equals(host) || remoteHost.startsWith(host + ":") || host.startsWith(remoteHost + ":")) {
+                    return of(i, hosts.length);
+                }
+            }
+        }
+        return WHOLE;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isWhole() {
+        return count == 1;
+    }
+
+    /**
+     * Locates the lines of the partition in the file.
+     *
+     * @param channel the channel of the file
+     * @param keepHeader - true to keep the first line of the file when it is not part of the range
+     * @return the byte ranges of the partition
+     * @throws IOException when reading of the file fails
+     */
+    public Slice slice(FileChannel channel, boolean keepHeader) throws IOException {
+        long size = channel.size();
+        long dataStart = LineIndex.startsWithUtf8Bom(channel) ? LineIndex.UTF8_BOM_LENGTH : 0;
+        long from = LineIndex.lineStart(channel, boundary(index, dataStart, size), dataStart);
+        long to = LineIndex.lineStart(channel, boundary(index + 1, dataStart, size), dataStart);
+        long headerEnd = -1;
+        if (keepHeader && from > dataStart) {
+            headerEnd = Math.min(from, LineIndex.lineStart(channel, dataStart + 1, dataStart));
+        } else if (keepHeader && from == to && size > dataStart) {
+            // an empty range at the start of the file, with more engines than lines, still gets the header
+            headerEnd = LineIndex.lineStart(channel, dataStart + 1, dataStart);
+        }
+        return new Slice(dataStart, headerEnd, from, to);
+    }
+
+    private long boundary(int node, long dataStart, long size) {
+        if (node >= count) {
+            return size;
+        }
+        return dataStart + (long) ((double) (size - dataStart) * node / count);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FilePartition)) {
+            return false;
+        }
+        FilePartition that = (FilePartition) o;
+        return index == that.index && count == that.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * index + count;
+    }
+
+    @Override
+    public String toString() {
+        return isWhole() ? "whole" : (index + "/" + count);
+    }
+
+    /**
+     * Byte ranges of the lines of a partition: an optional detached header line, then the lines of the range.
+     */
+    public static final class Slice {
+        private final long headerStart;
+        private final long headerEnd;
+        private final long from;
+        private final long to;
+
+        Slice(long headerStart, long headerEnd, long from, long to) {
+            this.headerStart = headerStart;
+            this.headerEnd = headerEnd;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return true if the header line is served ahead of the lines of the range
+         */
+        public boolean hasDetachedHeader() {
+            return headerEnd >= 0;
+        }
+
+        public long getHeaderStart() {
+            return headerStart;
+        }
+
+        public long getHeaderEnd() {
+            return headerEnd;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        /**
+         * @param file the file of the slice
+         * @return a stream of the bytes of the header line, if detached, followed by the bytes of the range
+         * @throws IOException when opening of the file fails
+         */
+        public InputStream open(File file) throws IOException {
+            InputStream range = openRange(file, from, to);
+            if (!hasDetachedHeader()) {
+                return range;
+            }
+            return new SequenceInputStream(openRange(file, headerStart, headerEnd), range);
+        }
+
+        private static InputStream openRange(File file, long start, long end) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(start);
+            return new BoundedInputStream(Channels.newInputStream(channel), end - start);
+        }
+    }
+}
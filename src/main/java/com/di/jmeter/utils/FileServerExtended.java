@@ -25,12 +25,31 @@ import org.apache.jorphan.util.JOrphanUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 /**
  * This class provides thread-safe access to files, and to
@@ -61,12 +80,66 @@ public class FileServerExtended {
             JMeterUtils.getPropDefault("jmeter.save.saveservice.base_prefix", // $NON-NLS-1$
                     BASE_PREFIX_DEFAULT);
 
-    private File base;
-    private static int rowCount;
-    private static final ThreadLocal<Integer> endPos =  new ThreadLocal<>();
-    private static final ThreadLocal<Integer> startPos =  new ThreadLocal<>();
-    private static final ThreadLocal<Integer> readPos =  new ThreadLocal<>();
-    private final Map<String, FileEntry> files = new HashMap<>();
+    /** Files up to this size (bytes) are preloaded in memory by the Auto storage mode */
+    private static final long PRELOAD_THRESHOLD =
+            JMeterUtils.getPropDefault("extendedcsv.preload.threshold", 64L * 1024 * 1024);
+
+    /** Number of rows of a sequential dataset read ahead in the background, 0 disables the read ahead */
+    private static final int PREFETCH_SIZE = JMeterUtils.getPropDefault("extendedcsv.sequential.prefetch", 0);
+
+    /** Seed of the Random Unique order, a new order is drawn for each test when empty */
+    private static final String RANDOM_SEED = JMeterUtils.getPropDefault("extendedcsv.random.seed", "");
+
+    /** Threads done with the rows of a Unique dataset steal half of the rows left to the other threads */
+    private static final boolean UNIQUE_STEAL = JMeterUtils.getPropDefault("extendedcsv.unique.steal", true);
+
+    /** Run shared by the JMeter processes of the host coordinating their Unique datasets, empty to disable it */
+    private static final String UNIQUE_RUN_ID = JMeterUtils.getPropDefault("extendedcsv.unique.runId", "").trim();
+
+    /** Time (ms) between two writes of the cursor checkpoints of the datasets, 0 disables the checkpoints */
+    private static final long CHECKPOINT_INTERVAL = JMeterUtils.getPropDefault("extendedcsv.checkpoint.interval", 0L);
+
+    /** Rows a cursor moves before its checkpoint is written ahead of the interval */
+    private static final long CHECKPOINT_ROWS = JMeterUtils.getPropDefault("extendedcsv.checkpoint.rows", 10000L);
+
+    /** Resume the Sequential and Unique cursors of the datasets from the checkpoints of the previous run */
+    private static final boolean CHECKPOINT_RESUME = JMeterUtils.getPropDefault("extendedcsv.checkpoint.resume", false);
+
+    /** Decompressed bytes between two checkpoints of an indexed gzip file, the most a row lookup inflates */
+    private static final int GZIP_CHECKPOINT = JMeterUtils.getPropDefault("extendedcsv.gzip.checkpoint", 256 * 1024);
+
+    /** Longest time (ms) a Sequential reader of a followed file waits for a row to be appended */
+    private static final long FOLLOW_TIMEOUT = JMeterUtils.getPropDefault("extendedcsv.follow.timeout", 30000L);
+
+    /** Time (ms) between two checks of the size of a followed file while readers wait for rows */
+    private static final long FOLLOW_POLL = JMeterUtils.getPropDefault("extendedcsv.follow.poll", 100L);
+
+    /** Workers preparing the datasets when the test starts, 0 leaves it to the first iteration of the threads */
+    private static final int PREPARE_THREADS = JMeterUtils.getPropDefault("extendedcsv.prepare.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Record the runtime metrics of the datasets, registered as MBeans and logged at the end of the test */
+    private static final boolean METRICS = JMeterUtils.getPropDefault("extendedcsv.metrics", false);
+
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+
+    private static final RowParser DEFAULT_PARSER = new RowParser(",", false);
+
+    // volatile as files are reserved without holding the server monitor
+    private volatile File base;
+    // share of the rows served by this engine in a distributed test
+    private volatile FilePartition partition = FilePartition.WHOLE;
+    // Reads only lock the entry of the file they use, so datasets on different files never contend
+    private final Map<String, FileEntry> files = new ConcurrentHashMap<>();
+    // writer of the cursor checkpoints, started by the first dataset reserved with checkpoints enabled
+    private volatile CheckpointWriter checkpoints;
+    // workers preparing the datasets and their pending preparations, guarded by the server monitor
+    private ExecutorService preparers;
+    private final List<CompletableFuture<Void>> preparations = new ArrayList<>();
+    // Row stores are shared by all the aliases of a file, so a dataset holds a single index and file handle
+    private final Map<String, StoreHolder> rowStores = new ConcurrentHashMap<>();
+    // metrics of the dataset files by filename, shared by their aliases, only created when METRICS is set
+    private final Map<String, DatasetMetrics> metrics = new ConcurrentHashMap<>();
     private static final FileServerExtended server = new FileServerExtended();
 
     // volatile needed to ensure safe publication
@@ -103,12 +176,19 @@ public class FileServerExtended {
      * @throws IllegalStateException if files are still open
      */
     public synchronized void setBasedir(String basedir) {
-        checkForOpenFiles(); // TODO should this be called if basedir == null?
+        File newBase = null;
         if (basedir != null) {
-            File newBase = new File(basedir);
+            newBase = new File(basedir);
             if (!newBase.isDirectory()) {
                 newBase = newBase.getParentFile();
             }
+            if (newBase != null && newBase.equals(base)) {
+                // every element of the plan sets the same base, the files already reserved stay open
+                return;
+            }
+        }
+        checkForOpenFiles(); // TODO should this be called if basedir == null?
+        if (basedir != null) {
             base = newBase;
             log.info("Set new base='{}'", base);
         }
@@ -143,6 +223,9 @@ public class FileServerExtended {
         if (jmxBase == null) {
             throw new IllegalArgumentException("jmxBase must not be null");
         }
+        if (jmxBase.equals(base)) {
+            return;
+        }
         checkForOpenFiles();
         base = jmxBase;
         log.info("Set new base='{}'", base);
@@ -243,7 +326,25 @@ public class FileServerExtended {
      * @return the header line; may be null
      * @throws IllegalArgumentException if header could not be read or filename is null or empty
      */
-    public synchronized String reserveFile(String filename, String charsetName, String alias, boolean hasHeader) {
+    public String reserveFile(String filename, String charsetName, String alias, boolean hasHeader) {
+        return reserveFile(filename, charsetName, alias, hasHeader, StorageMode.INDEXED, DEFAULT_PARSER);
+    }
+
+    /**
+     * Creates an association between a filename and a File inputOutputObject,
+     * and stores it for later use - unless it is already stored.
+     *
+     * @param filename - relative (to base) or absolute file name (must not be null or empty)
+     * @param charsetName - the character set encoding to use for the file (perhaps null)
+     * @param alias - the name to be used to access the object (must not be null)
+     * @param hasHeader true if the file has a header line describing the contents
+     * @param storageMode - the read engine used to serve the rows of the file
+     * @param parser - the parser splitting the rows of the file into values
+     * @return the header line; may be null
+     * @throws IllegalArgumentException if header could not be read or filename is null or empty
+     */
+    public String reserveFile(String filename, String charsetName, String alias, boolean hasHeader,
+                              StorageMode storageMode, RowParser parser) {
         if (filename == null || filename.isEmpty()){
             throw new IllegalArgumentException("Filename must not be null or empty");
         }
@@ -252,29 +353,233 @@ public class FileServerExtended {
         }
         FileEntry fileEntry = files.get(alias);
         if (fileEntry == null) {
-            fileEntry = new FileEntry(resolveFileFromPath(filename), null, charsetName);
-            if (filename.equals(alias)){
-                log.info("Stored: {}", filename);
-            } else {
-                log.info("Stored: {} Alias: {}", filename, alias);
-            }
-            files.put(alias, fileEntry);
-            if (hasHeader) {
-                try {
-                    fileEntry.headerLine = readLine(alias, false);
-                    if (fileEntry.headerLine == null) {
-                        fileEntry.exception = new EOFException("File is empty: " + fileEntry.file);
+            File file = resolveFileFromPath(filename);
+            List<File> parts = resolveParts(file);
+            FileEntry newEntry = new FileEntry(file, parts, null, charsetName, resolveStorageMode(parts, storageMode),
+                    parser, alias, hasHeader, partition);
+            newEntry.metrics = METRICS ? metrics.computeIfAbsent(filename, FileServerExtended::registerMetrics) : null;
+            // Hold the new entry until its header is read, threads reserving the same alias wait for it below
+            synchronized (newEntry) {
+                fileEntry = files.putIfAbsent(alias, newEntry);
+                if (fileEntry == null) {
+                    fileEntry = newEntry;
+                    if (filename.equals(alias)){
+                        log.info("Stored: {}", filename);
+                    } else {
+                        log.info("Stored: {} Alias: {}", filename, alias);
+                    }
+                    if (parts.size() > 1) {
+                        log.info("Dataset {} spans {} files: {}", alias, parts.size(), parts);
+                    }
+                    if (hasHeader) {
+                        try {
+                            fileEntry.headerLine = readLine(alias, false);
+                            if (fileEntry.headerLine == null) {
+                                fileEntry.exception = new EOFException("File is empty: " + fileEntry.file);
+                            }
+                        } catch (IOException | IllegalArgumentException e) {
+                            fileEntry.exception = e;
+                        }
                     }
-                } catch (IOException | IllegalArgumentException e) {
-                    fileEntry.exception = e;
+                    // after the header, whose read moved the sequential cursor of the previous run too
+                    attachCheckpoint(fileEntry, alias);
                 }
             }
         }
-        if (hasHeader && fileEntry.headerLine == null) {
-            throw new IllegalArgumentException("Could not read file header line for file " + filename,
-                    fileEntry.exception);
+        synchronized (fileEntry) {
+            if (hasHeader && fileEntry.headerLine == null) {
+                throw new IllegalArgumentException("Could not read file header line for file " + filename,
+                        fileEntry.exception);
+            }
+            return fileEntry.headerLine;
+        }
+    }
+
+    /**
+     * Runs the preparation of a dataset on the bounded pool of preparation workers, so the datasets of a test
+     * are indexed concurrently while it starts instead of by the first iteration of its threads.
+     * A failed preparation completes the returned future exceptionally, the threads waiting for it report the
+     * failure and prepare the dataset on their own.
+     *
+     * @param name - name of the dataset, for the logs
+     * @param task - the preparation
+     * @return the completion of the preparation, failed with the error of the preparation, cancelled if the test
+     * ends first; null when the datasets are
+     * not prepared ahead of the threads (property extendedcsv.prepare.threads set to 0)
+     */
+    public synchronized CompletableFuture<Void> prepare(String name, Runnable task) {
+        if (PREPARE_THREADS <= 0) {
+            return null;
+        }
+        if (preparers == null) {
+            AtomicInteger workers = new AtomicInteger();
+            preparers = Executors.newFixedThreadPool(PREPARE_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "ExtendedCsv-prepare-" + workers.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        preparations.removeIf(CompletableFuture::isDone);
+        CompletableFuture<Void> preparation = new CompletableFuture<>();
+        preparers.execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                task.run();
+                log.info("Prepared {} in {} ms", name, System.currentTimeMillis() - start);
+                preparation.complete(null);
+            } catch (RuntimeException e) {
+                preparation.completeExceptionally(e);
+            } catch (Error e) {
+                preparation.completeExceptionally(e);
+                throw e;
+            }
+        });
+        preparations.add(preparation);
+        return preparation;
+    }
+
+    /**
+     * Opens the row store of a file without reserving it, for the aliases only known once the threads run.
+     * The aliases reserved afterwards on the same file and settings share the store.
+     *
+     * @param filename - relative (to base) or absolute file name (must not be null or empty)
+     * @param charsetName - the character set encoding to use for the file (perhaps null)
+     * @param hasHeader true if the file has a header line describing the contents
+     * @param storageMode - the read engine used to serve the rows of the file
+     * @param parser - the parser splitting the rows of the file into values
+     * @throws IOException when reading of the file fails
+     */
+    public void prepareRowStore(String filename, String charsetName, boolean hasHeader, StorageMode storageMode,
+                                RowParser parser) throws IOException {
+        if (filename == null || filename.isEmpty()){
+            throw new IllegalArgumentException("Filename must not be null or empty");
+        }
+        File file = resolveFileFromPath(filename);
+        List<File> parts = resolveParts(file);
+        getRowStore(new FileEntry(file, parts, null, charsetName, resolveStorageMode(parts, storageMode), parser,
+                filename, hasHeader, partition));
+    }
+
+    /**
+     * Resolves the Auto storage mode from the size of the files.
+     *
+     * @param parts the files of the reserved dataset
+     * @param storageMode the storage mode selected for the file
+     * @return the storage mode used to serve the file
+     */
+    private static StorageMode resolveStorageMode(List<File> parts, StorageMode storageMode) {
+        if (storageMode != StorageMode.AUTO) {
+            return storageMode;
+        }
+        long length = 0;
+        for (File part : parts) {
+            length += part.length();
+        }
+        return length <= PRELOAD_THRESHOLD ? StorageMode.PRELOAD : StorageMode.INDEXED;
+    }
+
+    /**
+     * Resumes the cursors of the entry from its checkpoint and registers it to the checkpoint writer,
+     * as enabled by the extendedcsv.checkpoint properties.
+     */
+    private void attachCheckpoint(FileEntry fileEntry, String alias) {
+        if (CHECKPOINT_INTERVAL <= 0 && !CHECKPOINT_RESUME) {
+            return;
+        }
+        StringBuilder fingerprint = new StringBuilder(alias).append('|').append(fileEntry.partition);
+        for (File part : fileEntry.parts) {
+            fingerprint.append('|').append(part.getName()).append(':').append(part.length())
+                    .append(':').append(part.lastModified());
+        }
+        DatasetState dataset = fileEntry.dataset;
+        CheckpointWriter.Sidecar sidecar = new CheckpointWriter.Sidecar(sidecarFile(fileEntry, alias, "checkpoint"),
+                fingerprint.toString(), fileEntry.sequence::get, dataset::getLeased, dataset::getLeasedSeen);
+        if (CHECKPOINT_RESUME) {
+            long[] cursors = sidecar.read();
+            if (cursors != null) {
+                fileEntry.sequence.accumulateAndGet(cursors[0], Math::max);
+                dataset.resumeLeased(cursors[1]);
+                log.info("Resumed {} past {} sequential and {} unique rows", alias, cursors[0], cursors[1]);
+            }
+        }
+        if (CHECKPOINT_INTERVAL > 0) {
+            getCheckpoints().add(sidecar);
+            fileEntry.sidecar = sidecar;
+        }
+    }
+
+    private synchronized CheckpointWriter getCheckpoints() {
+        if (checkpoints == null) {
+            checkpoints = new CheckpointWriter(CHECKPOINT_INTERVAL, CHECKPOINT_ROWS);
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Wakes the checkpoint writer if the cursors of the entry moved far enough, without blocking.
+     */
+    private void checkpointMoved(FileEntry fileEntry) {
+        CheckpointWriter.Sidecar sidecar = fileEntry.sidecar;
+        CheckpointWriter writer = checkpoints;
+        if (sidecar != null && writer != null) {
+            writer.moved(sidecar);
         }
-        return fileEntry.headerLine;
+    }
+
+    /**
+     * @return a file next to the dataset, named after it and the alias and share of the rows it serves
+     */
+    private static File sidecarFile(FileEntry fileEntry, String alias, String extension) {
+        String name = fileEntry.file.getName().replaceAll("[^\\w.-]", "_") + "."
+                + Integer.toHexString(alias.hashCode())
+                + (fileEntry.partition.isWhole() ? "" : "." + fileEntry.partition.getIndex() + "of"
+                + fileEntry.partition.getCount()) + "." + extension;
+        return new File(fileEntry.file.getAbsoluteFile().getParentFile(), name);
+    }
+
+    /**
+     * Lists the files of a dataset: all the files of a directory, or the files of a directory whose
+     * name matches the glob pattern of the last name element (e.g. users-*.csv), sorted by name.
+     * Any other name, or a pattern matching nothing, is a dataset of that single file.
+     *
+     * @param file the resolved file name
+     * @return the files of the dataset, in row order
+     */
+    private static List<File> resolveParts(File file) {
+        File dir;
+        PathMatcher matcher;
+        if (file.isDirectory()) {
+            dir = file;
+            matcher = null;
+        } else if (!file.exists() && GLOB_CHARS.matcher(file.getName()).find()) {
+            dir = file.getAbsoluteFile().getParentFile();
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + file.getName());
+        } else {
+            return Collections.singletonList(file);
+        }
+        File[] matched = dir == null ? null : dir.listFiles(f -> f.isFile() && !f.isHidden()
+                && (matcher == null || matcher.matches(f.toPath().getFileName())));
+        if (matched == null || matched.length == 0) {
+            return Collections.singletonList(file);
+        }
+        Arrays.sort(matched, Comparator.comparing(File::getName));
+        return Collections.unmodifiableList(Arrays.asList(matched));
+    }
+
+    /**
+     * Sets the share of the rows this engine serves, for the files reserved afterwards.
+     *
+     * @param partition the partition of this engine, {@link FilePartition#WHOLE} when the test is not distributed
+     */
+    public void setPartition(FilePartition partition) {
+        if (!partition.equals(this.partition)) {
+            log.info("Serving partition {} of the files", partition);
+        }
+        this.partition = partition;
+    }
+
+    public FilePartition getPartition() {
+        return partition;
     }
 
     /**
@@ -325,14 +630,235 @@ public class FileServerExtended {
      * @return String containing the next line in the file (null if EOF reached and not recycle)
      * @throws IOException when reading of the file fails, or the file was not reserved properly
      */
-    public synchronized String readLine(String filename, boolean recycle,
-                                        boolean ignoreFirstLine) throws IOException {
+    public String readLine(String filename, boolean recycle,
+                           boolean ignoreFirstLine) throws IOException {
+        return readLine(filename, recycle, ignoreFirstLine, null);
+    }
+
+    /**
+     * Get the next line of the named file.
+     * <p>
+     * Indexed files are read through the shared sequential cursor of the alias, so all the threads sharing
+     * the alias consume the rows of a single cursor. When a lease is given, the rows are taken from the lease
+     * and the shared cursor is only touched to renew it.
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param recycle - should file be restarted at EOF?
+     * @param ignoreFirstLine - Ignore first line
+     * @param lease - batch of rows owned by the calling thread (perhaps null)
+     * @return String containing the next line in the file (null if EOF reached and not recycle)
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String readLine(String filename, boolean recycle, boolean ignoreFirstLine,
+                           RowLease lease) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        RowStore rowStore = getRowStore(fileEntry);
+        if (rowStore != null) {
+            int row = nextRow(fileEntry, rowStore, lease, recycle, ignoreFirstLine);
+            return served(fileEntry, start, row < 0 ? null : rowStore.getRow(row));
+        }
+        return served(fileEntry, start, readReaderLine(fileEntry, recycle, ignoreFirstLine));
+    }
+
+    /**
+     * Get the values of the next line of the named file, split by the parser of the file.
+     * <p>
+     * When the read ahead is enabled by the property extendedcsv.sequential.prefetch, the values are taken
+     * from the rows read and split ahead by the background producer of the alias, the lease is not used then.
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param recycle - should file be restarted at EOF?
+     * @param ignoreFirstLine - Ignore first line
+     * @param lease - batch of rows owned by the calling thread (perhaps null)
+     * @return the values of the next line in the file (null if EOF reached and not recycle)
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readLineValues(String filename, boolean recycle, boolean ignoreFirstLine,
+                                   RowLease lease) throws IOException {
+        return readLineValues(filename, recycle, ignoreFirstLine, lease, null);
+    }
+
+    /**
+     * Get the values of the projected columns of the next line of the named file, see
+     * {@link #readLineValues(String, boolean, boolean, RowLease)}.
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param recycle - should file be restarted at EOF?
+     * @param ignoreFirstLine - Ignore first line
+     * @param lease - batch of rows owned by the calling thread (perhaps null)
+     * @param projection the columns to return, null for all of them
+     * @return the values of the next line in the file (null if EOF reached and not recycle)
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readLineValues(String filename, boolean recycle, boolean ignoreFirstLine,
+                                   RowLease lease, ColumnProjection projection) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        RowStore rowStore = getRowStore(fileEntry);
+        if (rowStore != null) {
+            // a followed file is read directly, the read ahead would end for good on the first timeout
+            if (PREFETCH_SIZE > 0 && fileEntry.readAhead && !(rowStore instanceof TailRowStore)) {
+                RowPrefetcher prefetcher = getPrefetcher(fileEntry, rowStore, recycle, ignoreFirstLine);
+                long wait = startTimer();
+                String[] values = prefetcher.take();
+                waited(fileEntry, wait);
+                // the read ahead is shared by the elements of the alias, it splits whole rows
+                return served(fileEntry, start, values == null || projection == null ? values
+                        : projection.select(values));
+            }
+            int row = nextRow(fileEntry, rowStore, lease, recycle, ignoreFirstLine);
+            return served(fileEntry, start, row < 0 ? null : getValues(fileEntry, rowStore, row, projection));
+        }
+        String line = readReaderLine(fileEntry, recycle, ignoreFirstLine);
+        return served(fileEntry, start, line == null ? null : parse(fileEntry, line, projection));
+    }
+
+    private static String[] getValues(FileEntry fileEntry, RowStore rowStore, int row, ColumnProjection projection)
+            throws IOException {
+        return projection == null ? rowStore.getValues(row, fileEntry.parser)
+                : rowStore.getValues(row, fileEntry.parser, projection);
+    }
+
+    private static String[] parse(FileEntry fileEntry, String line, ColumnProjection projection) throws IOException {
+        return projection == null ? fileEntry.parser.parse(line) : fileEntry.parser.parse(line, projection);
+    }
+
+    private static long startTimer() {
+        return METRICS ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the fetch time of a row of the entry.
+     *
+     * @param start - time the fetch started, from {@link #startTimer()}
+     * @param row - the row or its values, null when none was served
+     * @return the row
+     */
+    private static <T> T served(FileEntry fileEntry, long start, T row) {
+        if (fileEntry.metrics != null && row != null) {
+            fileEntry.metrics.served(System.nanoTime() - start);
+        }
+        return row;
+    }
+
+    /**
+     * Records the time spent blocked on a lock, a prefetched row or an appended row of the entry.
+     *
+     * @param start - time the wait started, from {@link #startTimer()}
+     */
+    private static void waited(FileEntry fileEntry, long start) {
+        if (fileEntry.metrics != null) {
+            fileEntry.metrics.waited(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads the Sequential rows of the alias ahead on a background thread when extendedcsv.sequential.prefetch
+     * is set. Only worth a thread for the aliases read by several threads, the other ones are read directly.
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @throws IOException when the file was not reserved properly
+     */
+    public void enableReadAhead(String filename) throws IOException {
+        getFileEntry(filename).readAhead = true;
+    }
+
+    private FileEntry getFileEntry(String filename) throws IOException {
         FileEntry fileEntry = files.get(filename);
-        if (fileEntry != null) {
+        if (fileEntry == null) {
+            throw new IOException("File never reserved: "+filename);
+        }
+        return fileEntry;
+    }
+
+    /**
+     * Get the read ahead of the file entry, started by the first call.
+     */
+    private RowPrefetcher getPrefetcher(FileEntry fileEntry, RowStore rowStore, boolean recycle,
+                                        boolean ignoreFirstLine) {
+        RowPrefetcher prefetcher = fileEntry.prefetcher;
+        if (prefetcher == null) {
+            synchronized (fileEntry) {
+                prefetcher = fileEntry.prefetcher;
+                if (prefetcher == null) {
+                    // the producer takes its rows from the shared cursor, like any other reader of the alias
+                    RowLease lease = new RowLease(PREFETCH_SIZE);
+                    prefetcher = new RowPrefetcher(fileEntry.dataset.getAlias(), PREFETCH_SIZE, () -> {
+                        int row = nextRow(fileEntry, rowStore, lease, recycle, ignoreFirstLine);
+                        return row < 0 ? null : rowStore.getValues(row, fileEntry.parser);
+                    });
+                    prefetcher.start();
+                    fileEntry.prefetcher = prefetcher;
+                }
+            }
+        }
+        return prefetcher;
+    }
+
+    /**
+     * Takes the next row of the shared sequential cursor of the entry.
+     *
+     * @return the row number (-1 if EOF reached and not recycle, or no row was appended to a followed file in time)
+     */
+    private int nextRow(FileEntry fileEntry, RowStore rowStore, RowLease lease, boolean recycle,
+                        boolean ignoreFirstLine) throws IOException {
+        if (rowStore instanceof TailRowStore) {
+            return followRow(fileEntry, (TailRowStore) rowStore);
+        }
+        return sequenceRow(fileEntry, rowStore, nextSequence(fileEntry, lease), recycle, ignoreFirstLine);
+    }
+
+    /**
+     * Takes the next row of a followed file, waiting for it to be appended. The cursor only moves over rows
+     * already written and no lease is taken ahead, so a reader giving up leaves its row to the next reader.
+     *
+     * @return the row number, -1 if no row was appended within extendedcsv.follow.timeout
+     */
+    private int followRow(FileEntry fileEntry, TailRowStore rowStore) throws IOException {
+        AtomicLong sequence = fileEntry.sequence;
+        while (true) {
+            long next = sequence.get();
+            if (next < rowStore.size()) {
+                if (sequence.compareAndSet(next, next + 1)) {
+                    checkpointMoved(fileEntry);
+                    return (int) next;
+                }
+            } else {
+                long start = startTimer();
+                boolean written = rowStore.awaitRow(next, TimeUnit.MILLISECONDS.toNanos(FOLLOW_TIMEOUT));
+                waited(fileEntry, start);
+                if (!written) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private long nextSequence(FileEntry fileEntry, RowLease lease) {
+        if (lease == null) {
+            long sequence = fileEntry.sequence.getAndIncrement();
+            checkpointMoved(fileEntry);
+            return sequence;
+        }
+        if (lease.isExhausted()) {
+            lease.renew(fileEntry.sequence.getAndAdd(lease.getSize()));
+            checkpointMoved(fileEntry);
+        }
+        return lease.next();
+    }
+
+    /**
+     * Get the next line of a file which cannot be indexed, from the reader of the file entry.
+     */
+    private String readReaderLine(FileEntry fileEntry, boolean recycle, boolean ignoreFirstLine) throws IOException {
+        long start = startTimer();
+        synchronized (fileEntry) {
+            waited(fileEntry, start);
             if (fileEntry.inputOutputObject == null) {
                 fileEntry.inputOutputObject = createBufferedReader(fileEntry);
             } else if (!(fileEntry.inputOutputObject instanceof Reader)) {
-                throw new IOException("File " + filename + " already in use");
+                throw new IOException("File " + fileEntry.file + " already in use");
             }
             BufferedReader reader = (BufferedReader) fileEntry.inputOutputObject;
             String line = reader.readLine();
@@ -345,10 +871,44 @@ public class FileServerExtended {
                     reader.readLine();//NOSONAR
                 }
                 line = reader.readLine();
+                if (fileEntry.metrics != null && line != null) {
+                    fileEntry.metrics.wrapped();
+                }
+            }
+            if (fileEntry.metrics != null && line != null) {
+                // characters and line terminator, the exact count of bytes is lost by the decoding
+                fileEntry.metrics.read(line.length() + 1L);
             }
             return line;
         }
-        throw new IOException("File never reserved: "+filename);
+    }
+
+    /**
+     * Maps a sequence number of the sequential cursor to its row.
+     * The first pass goes through all the rows, the following ones skip the header when ignoreFirstLine is set.
+     *
+     * @param fileEntry the file entry, whose wrap-arounds are counted
+     * @param rowStore the row store of the file
+     * @param sequence - sequence number taken from the cursor (starts from 0)
+     * @param recycle - should file be restarted at EOF?
+     * @param ignoreFirstLine - Ignore first line
+     * @return the row number (-1 if EOF reached and not recycle)
+     */
+    private static int sequenceRow(FileEntry fileEntry, RowStore rowStore, long sequence, boolean recycle,
+                                   boolean ignoreFirstLine) {
+        int size = rowStore.size();
+        if (sequence < size) {
+            return (int) sequence;
+        }
+        int first = ignoreFirstLine ? 1 : 0;
+        if (!recycle || size <= first) {
+            return -1;
+        }
+        int pass = (int) ((sequence - size) % (size - first));
+        if (fileEntry.metrics != null && pass == 0) {
+            fileEntry.metrics.wrapped();
+        }
+        return first + pass;
     }
 
     /**
@@ -359,14 +919,21 @@ public class FileServerExtended {
      * @return the parsed line, will be empty if the file is at EOF
      * @throws IOException when reading of the aliased file fails, or the file was not reserved properly
      */
-    public synchronized String[] getParsedLine(String alias, boolean recycle, boolean ignoreFirstLine, char delim) throws IOException {
-        BufferedReader reader = getReader(alias, recycle, ignoreFirstLine);
-        return CSVSaveService.csvReadFile(reader, delim);
+    public String[] getParsedLine(String alias, boolean recycle, boolean ignoreFirstLine, char delim) throws IOException {
+        FileEntry fileEntry = files.get(alias);
+        if (fileEntry == null) {
+            throw new IOException("File never reserved: "+alias);
+        }
+        synchronized (fileEntry) {
+            BufferedReader reader = getReader(alias, recycle, ignoreFirstLine);
+            return CSVSaveService.csvReadFile(reader, delim);
+        }
     }
 
     /**
      * Return BufferedReader handling close if EOF reached and recycle is true
-     * and ignoring first line if ignoreFirstLine is true
+     * and ignoring first line if ignoreFirstLine is true.
+     * Caller must hold the lock of the file entry.
      *
      * @param alias           String alias
      * @param recycle         Recycle at eof
@@ -411,10 +978,27 @@ public class FileServerExtended {
     }
 
     private BufferedReader createBufferedReader(FileEntry fileEntry) throws IOException {
-        if (!fileEntry.file.canRead() || !fileEntry.file.isFile()) {
-            throw new IllegalArgumentException("File "+ fileEntry.file.getName()+ " must exist and be readable");
+        if (fileEntry.parts.size() == 1) {
+            return createBufferedReader(fileEntry, fileEntry.file);
+        }
+        // the header repeated by each part is only read from the first one
+        return new BufferedReader(new MultiFileReader(fileEntry.parts,
+                part -> createBufferedReader(fileEntry, part), fileEntry.hasHeader));
+    }
+
+    private static BufferedReader createBufferedReader(FileEntry fileEntry, File file) throws IOException {
+        if (!file.canRead() || !file.isFile()) {
+            throw new IllegalArgumentException("File "+ file.getName()+ " must exist and be readable");
+        }
+        FileFormat format = fileEntry.formatOf(file);
+        if (format == FileFormat.ECSV) {
+            throw new IOException("File " + file + " is a binary dataset, it has no text lines");
         }
-        BOMInputStream fis = new BOMInputStream(Files.newInputStream(fileEntry.file.toPath())); //NOSONAR
+        InputStream raw = Files.newInputStream(file.toPath()); //NOSONAR
+        if (format == FileFormat.GZIP) {
+            raw = new GZIPInputStream(raw, 64 * 1024);
+        }
+        BOMInputStream fis = new BOMInputStream(raw);
         InputStreamReader isr = null;
         // If file encoding is specified, read using that encoding, otherwise use default platform encoding
         String charsetName = fileEntry.charSetEncoding;
@@ -430,17 +1014,19 @@ public class FileServerExtended {
         return new BufferedReader(isr);
     }
 
-    public synchronized void write(String filename, String value) throws IOException {
+    public void write(String filename, String value) throws IOException {
         FileEntry fileEntry = files.get(filename);
         if (fileEntry != null) {
-            if (fileEntry.inputOutputObject == null) {
-                fileEntry.inputOutputObject = createBufferedWriter(fileEntry);
-            } else if (!(fileEntry.inputOutputObject instanceof Writer)) {
-                throw new IOException("File " + filename + " already in use");
+            synchronized (fileEntry) {
+                if (fileEntry.inputOutputObject == null) {
+                    fileEntry.inputOutputObject = createBufferedWriter(fileEntry);
+                } else if (!(fileEntry.inputOutputObject instanceof Writer)) {
+                    throw new IOException("File " + filename + " already in use");
+                }
+                BufferedWriter writer = (BufferedWriter) fileEntry.inputOutputObject;
+                log.debug("Write:{}", value);
+                writer.write(value);
             }
-            BufferedWriter writer = (BufferedWriter) fileEntry.inputOutputObject;
-            log.debug("Write:{}", value);
-            writer.write(value);
         } else {
             throw new IOException("File never reserved: "+filename);
         }
@@ -462,10 +1048,41 @@ public class FileServerExtended {
     }
 
     public synchronized void closeFiles() throws IOException {
+        for (StoreHolder holder : rowStores.values()) {
+            RowStore rowStore = holder.rowStore;
+            if (rowStore instanceof TailRowStore) {
+                // readers waiting for appended rows, including the read ahead closed below, stop waiting
+                ((TailRowStore) rowStore).stop();
+            }
+        }
+        if (preparers != null) {
+            // threads still waiting for a dataset give up on it, nothing is prepared after the end of the test
+            preparations.forEach(preparation -> preparation.cancel(false));
+            preparations.clear();
+            preparers.shutdownNow();
+            preparers = null;
+        }
+        if (checkpoints != null) {
+            // last positions of the cursors, before closing the entries resets them
+            checkpoints.close();
+            checkpoints = null;
+        }
         for (Map.Entry<String, FileEntry> me : files.entrySet()) {
             closeFile(me.getKey(),me.getValue() );
         }
         files.clear();
+        for (Map.Entry<String, StoreHolder> me : rowStores.entrySet()) {
+            synchronized (me.getValue()) {
+                if (me.getValue().rowStore != null) {
+                    log.info("Close row store: {}", me.getKey());
+                    me.getValue().rowStore.close();
+                    me.getValue().rowStore = null;
+                }
+            }
+        }
+        rowStores.clear();
+        metrics.values().forEach(FileServerExtended::unregisterMetrics);
+        metrics.clear();
     }
 
     /**
@@ -478,16 +1095,89 @@ public class FileServerExtended {
     }
 
     private void closeFile(String name, FileEntry fileEntry) throws IOException {
-        if (fileEntry != null && fileEntry.inputOutputObject != null) {
-            log.info("Close: {}", name);
-            fileEntry.inputOutputObject.close();
-            fileEntry.inputOutputObject = null;
+        if (fileEntry == null) {
+            return;
+        }
+        synchronized (fileEntry) {
+            fileEntry.dataset.close();
+            CheckpointWriter writer = checkpoints;
+            if (fileEntry.sidecar != null && writer != null) {
+                writer.remove(fileEntry.sidecar);
+            }
+            if (fileEntry.prefetcher != null) {
+                fileEntry.prefetcher.close();
+                fileEntry.prefetcher = null;
+            }
+            if (fileEntry.inputOutputObject != null) {
+                log.info("Close: {}", name);
+                fileEntry.inputOutputObject.close();
+                fileEntry.inputOutputObject = null;
+            }
+            // the row store is shared with the other aliases of the file, it is closed by closeFiles
+            fileEntry.rowStore = null;
+            fileEntry.sequence.set(0);
         }
     }
 
-    boolean filesOpen() { // package access for test code only
-        return files.values().stream()
-                .anyMatch(fileEntry -> fileEntry.inputOutputObject != null);
+    /**
+     * @param filename the filename or alias that was used to reserve the file
+     * @return the metrics of the dataset file, shared by its aliases, null unless extendedcsv.metrics is set
+     * @throws IOException when the file was not reserved properly
+     */
+    public DatasetMetrics getMetrics(String filename) throws IOException {
+        return getFileEntry(filename).metrics;
+    }
+
+    /**
+     * Logs a summary of the metrics of every reserved dataset file which served rows.
+     */
+    public void logMetrics() {
+        for (DatasetMetrics datasetMetrics : metrics.values()) {
+            if (datasetMetrics.getRowsServed() > 0) {
+                log.info("Dataset {}", datasetMetrics);
+            }
+        }
+    }
+
+    private static ObjectName metricsName(DatasetMetrics metrics) throws JMException {
+        return new ObjectName("com.di.jmeter:type=ExtendedCsvDataSet,name=" + ObjectName.quote(metrics.getDataset()));
+    }
+
+    /**
+     * Creates the metrics of a dataset file and registers them as an MBean.
+     */
+    private static DatasetMetrics registerMetrics(String filename) {
+        DatasetMetrics metrics = new DatasetMetrics(filename);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = metricsName(metrics);
+            if (server.isRegistered(name)) {
+                // left by a dataset of the same alias which was never closed
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException | SecurityException e) {
+            log.warn("Could not register the metrics of {}: {}", filename, e.toString());
+        }
+        return metrics;
+    }
+
+    private static void unregisterMetrics(DatasetMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = metricsName(metrics);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | SecurityException e) {
+            log.warn("Could not unregister the metrics of {}: {}", metrics.getDataset(), e.toString());
+        }
+    }
+
+    synchronized boolean filesOpen() { // package access for test code only
+        // a running preparation is about to open the entries it reserved
+        return !rowStores.isEmpty() || preparations.stream().anyMatch(preparation -> !preparation.isDone())
+                || files.values().stream().anyMatch(fileEntry -> fileEntry.inputOutputObject != null);
     }
 
     /**
@@ -532,14 +1222,60 @@ public class FileServerExtended {
         private String headerLine;
         private Throwable exception;
         private final File file;
+        // files of the dataset in row order, the file itself unless it names a directory or a pattern
+        private final List<File> parts;
+        // format of each part, detected when the dataset is reserved
+        private final Map<File, FileFormat> formats;
         private Closeable inputOutputObject;
         private final String charSetEncoding;
+        private final StorageMode storageMode;
+        private final RowParser parser;
+        // shared row store of the file, read without locking by the random and indexed read paths
+        private volatile RowStore rowStore;
+        private volatile boolean unindexable;
+        // shared sequential cursor of the alias
+        private final AtomicLong sequence = new AtomicLong();
+        // the first line is a header, kept by every engine of a partitioned test
+        private final boolean hasHeader;
+        private final FilePartition partition;
+        // background read ahead of the sequential cursor, for the aliases shared by several threads (perhaps null)
+        private volatile boolean readAhead;
+        private volatile RowPrefetcher prefetcher;
+        // checkpoint of the cursors (perhaps null)
+        private volatile CheckpointWriter.Sidecar sidecar;
+        // metrics of the dataset file, shared with the other aliases of the file (null when not recorded)
+        private DatasetMetrics metrics;
+        private final DatasetState dataset;
 
-        FileEntry(File f, Closeable o, String e) {
+        FileEntry(File f, List<File> ps, Closeable o, String e, StorageMode m, RowParser p, String alias, boolean h,
+                  FilePartition fp) {
             file = f;
+            parts = ps;
+            formats = new HashMap<>();
+            for (File part : ps) {
+                formats.put(part, FileFormat.detect(part));
+            }
+            hasHeader = h;
+            partition = fp;
             inputOutputObject = o;
             charSetEncoding = e;
+            storageMode = m;
+            parser = p;
+            dataset = new DatasetState(alias, RANDOM_SEED.isEmpty()
+                    ? ThreadLocalRandom.current().nextLong() : Long.parseLong(RANDOM_SEED.trim()));
         }
+
+        FileFormat formatOf(File part) {
+            return formats.getOrDefault(part, FileFormat.TEXT);
+        }
+    }
+
+    private static class StoreHolder {
+        private RowStore rowStore;
+        private boolean unindexable;
+        // time taken to open the row store and bytes of the files it was built from, for the metrics
+        private long buildNanos;
+        private long bytesRead;
     }
 
     /**
@@ -578,98 +1314,609 @@ public class FileServerExtended {
     }
 
     /**
-     * Get the number of rows count for the named file
+     * Get the number of rows count for the named file, and store it in the dataset state of the alias.
+     * The line offset index of the file is built on the same pass, when the file encoding allows it.
      *
      * @param filename the filename or alias that was used to reserve the file
      * @param ignoreFirstLine Consider first line as variable name ?
-     * @return String containing the next line in the file
-     * @throws IOException when reading of the file fails, or the file was not reserved properly
      */
     public void calculateRowCount(String filename, boolean ignoreFirstLine) {
         FileEntry fileEntry = files.get(filename);
-        int count = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(String.valueOf(fileEntry.file.toPath())))) {
-            count = (int) br.lines().count();
+        int firstRow = ignoreFirstLine ? 1 : 0;
+        long count = 0;
+        try {
+            RowStore rowStore = getRowStore(fileEntry);
+            if (rowStore != null) {
+                count = rowStore.size();
+            } else if (fileEntry.dataset.isCounted() && fileEntry.dataset.getFirstRow() == firstRow) {
+                // counted once for all the threads of the alias, the file is not read again
+                return;
+            } else {
+                try (BufferedReader br = createBufferedReader(fileEntry)) {
+                    count = br.lines().count();
+                }
+            }
         } catch (IOException e) {
             log.error(e.toString());
+        }
+        fileEntry.dataset.setRows(Math.max(0, count - firstRow), firstRow);
+    }
 
+    /**
+     * Builds the weight table of the dataset from a numeric column, once for all the threads sharing the alias.
+     * The row count must have been calculated before. Rows without a value in the column are never drawn.
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param column - column holding the weight of the rows (starts from 0)
+     * @throws IOException when reading of the file fails, the file was not reserved properly, or a weight is invalid
+     */
+    public void calculateWeights(String filename, int column) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        DatasetState dataset = fileEntry.dataset;
+        if (dataset.getWeights() != null) {
+            return;
+        }
+        synchronized (fileEntry) {
+            if (dataset.getWeights() != null) {
+                return;
+            }
+            int rows = (int) dataset.getRowCount();
+            int firstRow = dataset.getFirstRow();
+            double[] weights = new double[rows];
+            RowStore rowStore = getRowStore(fileEntry);
+            if (rowStore != null) {
+                for (int i = 0; i < rows; i++) {
+                    weights[i] = parseWeight(rowStore.getValue(firstRow + i, column, fileEntry.parser), firstRow + i);
+                }
+            } else {
+                try (BufferedReader reader = createBufferedReader(fileEntry)) {
+                    for (int i = 0; i < firstRow; i++) {
+                        reader.readLine();//NOSONAR
+                    }
+                    String line;
+                    for (int i = 0; i < rows && (line = reader.readLine()) != null; i++) {
+                        String[] values = fileEntry.parser.parse(line, column + 1);
+                        weights[i] = parseWeight(column < values.length ? values[column] : null, firstRow + i);
+                    }
+                }
+            }
+            try {
+                dataset.setWeights(WeightTable.build(weights, rows));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid weights in file " + fileEntry.file + ": " + e.getMessage(), e);
+            }
         }
-        this.setRowCount(ignoreFirstLine ? count-1 : count );
+    }
+
+    private static double parseWeight(String value, int line) throws IOException {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid weight '" + value + "' at line " + (line + 1), e);
+        }
+    }
+
+    /**
+     * @param filename the filename or alias that was used to reserve the file
+     * @return the runtime state of the dataset
+     * @throws IOException when the file was not reserved
+     */
+    public DatasetState getDataset(String filename) throws IOException {
+        return getFileEntry(filename).dataset;
     }
 
     /**
-     * Set the read position to Thread local (specific to each thread)
+     * Shares the Unique rows of the dataset with the other JMeter processes of the host running with the same
+     * extendedcsv.unique.runId, through a control file next to the dataset. Does nothing when the property is not set.
+     * Must be called before the first lease of the dataset is registered.
      *
-     * @param threadName the filename or alias that was used to reserve the file
-     * @param blockSize Set the block
-     * @param ignoreFirstLine Consider first line as variable name ?
-     * @return String containing the next line in the file
-     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     * @param filename the filename or alias that was used to reserve the file
+     * @throws IOException when the file was not reserved properly
      */
-    public static void setReadPosition(String threadName, int blockSize, boolean ignoreFirstLine) {
-        int head = ignoreFirstLine ? 1 : 0;
-        int endPos = (Integer.parseInt(threadName.substring(threadName.lastIndexOf('-') + 1)) * blockSize) - 1;
-        setEndPos(endPos);
-        setStartPos((getEndPos() - blockSize) + 1);
-        if(ignoreFirstLine){
-            setEndPos(getEndPos() + head);
-            setStartPos(getStartPos() + head);
+    public void shareAcrossProcesses(String filename) throws IOException {
+        if (UNIQUE_RUN_ID.isEmpty()) {
+            return;
+        }
+        FileEntry fileEntry = getFileEntry(filename);
+        // one control file per alias and share of the rows
+        fileEntry.dataset.shareAcrossProcesses(sidecarFile(fileEntry, filename, "unique"), UNIQUE_RUN_ID);
+        if (fileEntry.dataset.isCounted()) {
+            // mapped now rather than by the first thread taking rows
+            fileEntry.dataset.mapControl();
         }
     }
 
+    /**
+     * Get the row store of the file entry, indexing the file and opening its read engine on first use.
+     * Once built the store is immutable and read without locking.
+     *
+     * @param fileEntry the reserved file entry
+     * @return the row store, or null if the file encoding does not allow byte offset indexing
+     * @throws IOException when reading of the file fails
+     */
+    private RowStore getRowStore(FileEntry fileEntry) throws IOException {
+        RowStore rowStore = fileEntry.rowStore;
+        if (rowStore != null || fileEntry.unindexable) {
+            return rowStore;
+        }
+        String key = fileEntry.file.getAbsolutePath() + "|" + fileEntry.charSetEncoding + "|" + fileEntry.storageMode;
+        if (fileEntry.storageMode == StorageMode.PRELOAD) {
+            // preloaded values depend on how the rows were split
+            key += "|" + fileEntry.parser;
+        }
+        if (!fileEntry.partition.isWhole() || fileEntry.parts.size() > 1) {
+            key += "|" + fileEntry.partition + (fileEntry.hasHeader ? "|header" : "");
+        }
+        StoreHolder holder = rowStores.computeIfAbsent(key, k -> new StoreHolder());
+        long start = startTimer();
+        synchronized (holder) {
+            waited(fileEntry, start);
+            if (holder.rowStore == null && !holder.unindexable) {
+                long build = System.nanoTime();
+                holder.rowStore = openRowStore(fileEntry);
+                holder.unindexable = holder.rowStore == null;
+                holder.buildNanos = System.nanoTime() - build;
+                if (holder.rowStore != null) {
+                    for (File part : fileEntry.parts) {
+                        holder.bytesRead += part.length();
+                    }
+                }
+            }
+            if (fileEntry.metrics != null) {
+                fileEntry.metrics.indexBuilt(holder.buildNanos, holder.bytesRead);
+            }
+            fileEntry.unindexable = holder.unindexable;
+            fileEntry.rowStore = holder.rowStore;
+            return holder.rowStore;
+        }
+    }
+
+    /**
+     * Caller must hold the lock of the store holder of the file.
+     */
+    private RowStore openRowStore(FileEntry fileEntry) throws IOException {
+        List<File> parts = fileEntry.parts;
+        if (parts.size() == 1) {
+            return openRowStore(fileEntry, fileEntry.file);
+        }
+        // one file per worker, each part gets the store it would get on its own
+        long start = System.currentTimeMillis();
+        RowStore[] stores = new RowStore[parts.size()];
+        try {
+            IntStream.range(0, stores.length).parallel().forEach(i -> {
+                try {
+                    stores[i] = openRowStore(fileEntry, parts.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            closeStores(stores);
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            closeStores(stores);
+            throw e;
+        }
+        if (Arrays.asList(stores).contains(null)) {
+            // the encoding or the line endings of a part do not allow indexing, the dataset is read as a stream
+            closeStores(stores);
+            return null;
+        }
+        RowStore rowStore = new MultiRowStore(stores, fileEntry.hasHeader);
+        log.info("Indexed {} lines of {} files of {} in {} ms", rowStore.size(), stores.length, fileEntry.file,
+                System.currentTimeMillis() - start);
+        return rowStore;
+    }
+
+    private static void closeStores(RowStore[] stores) {
+        for (RowStore store : stores) {
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close the row store of a dataset part", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the row store of a single file of the dataset.
+     */
+    private RowStore openRowStore(FileEntry fileEntry, File file) throws IOException {
+        FileFormat format = fileEntry.formatOf(file);
+        if (format == FileFormat.ECSV) {
+            // precompiled rows, whatever the storage mode and encoding: nothing to scan nor to parse
+            RowStore rowStore = EcsvRowStore.open(file, fileEntry.partition, fileEntry.hasHeader);
+            log.info("Opened {} binary rows of {} (partition {})", rowStore.size(), file, fileEntry.partition);
+            return rowStore;
+        }
+        Charset charset = JOrphanUtils.isBlank(fileEntry.charSetEncoding)
+                ? Charset.defaultCharset() : Charset.forName(fileEntry.charSetEncoding);
+        FilePartition filePartition = fileEntry.partition;
+        boolean gzip = format == FileFormat.GZIP;
+        boolean follow = fileEntry.storageMode == StorageMode.FOLLOW;
+        if (follow && (gzip || fileEntry.parts.size() > 1 || !filePartition.isWhole())) {
+            log.warn("{} is compressed, split between engines or one of several files, it is served as Indexed"
+                    + " without following it", file);
+            follow = false;
+        }
+        if (!filePartition.isWhole() && !LineIndex.isIndexable(charset)) {
+            log.warn("Encoding {} does not allow splitting {} between engines, every engine serves the whole file",
+                    charset, file);
+            filePartition = FilePartition.WHOLE;
+        } else if (!filePartition.isWhole() && gzip) {
+            log.warn("Compressed file {} cannot be split between engines, every engine serves the whole file",
+                    file);
+            filePartition = FilePartition.WHOLE;
+        } else if (!filePartition.isWhole() && fileEntry.storageMode == StorageMode.PRELOAD
+                && LineIndex.hasBareCr(file)) {
+            // the other modes find the classic Mac line endings while indexing, Preload slices the file first
+            warnBareCrSplit(file);
+            filePartition = FilePartition.WHOLE;
+        }
+        if (fileEntry.storageMode == StorageMode.PRELOAD) {
+            long start = System.currentTimeMillis();
+            RowStore rowStore;
+            try (BufferedReader reader = filePartition.isWhole() ? createBufferedReader(fileEntry, file)
+                    : createSliceReader(fileEntry, file, filePartition, charset)) {
+                rowStore = ColumnarRowStore.load(reader, fileEntry.parser);
+            }
+            log.info("Preloaded {} lines of {} in {} ms (partition {})", rowStore.size(), file,
+                    System.currentTimeMillis() - start, filePartition);
+            return rowStore;
+        }
+        if (!LineIndex.isIndexable(charset)) {
+            log.info("Encoding {} does not allow line indexing of {}, falling back to stream reads", charset, file);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        if (gzip) {
+            // every storage mode but Preload keeps the rows compressed, in windows inflated on demand
+            GzipRowStore rowStore = GzipRowStore.load(file, charset,
+                    JOrphanUtils.isBlank(fileEntry.charSetEncoding), GZIP_CHECKPOINT, fileEntry.storageMode);
+            if (rowStore.hasBareCr()) {
+                return dropBareCr(rowStore, file, filePartition);
+            }
+            log.info("Indexed {} lines of compressed {} in {} ms", rowStore.size(), file,
+                    System.currentTimeMillis() - start);
+            return rowStore;
+        }
+        // A BOM without explicit encoding selects UTF-8, same as createBufferedReader
+        if (JOrphanUtils.isBlank(fileEntry.charSetEncoding) && LineIndex.startsWithUtf8Bom(file)) {
+            charset = StandardCharsets.UTF_8;
+        }
+        if (follow) {
+            TailRowStore rowStore = TailRowStore.open(file, charset, JOrphanUtils.isBlank(fileEntry.charSetEncoding),
+                    FOLLOW_POLL);
+            if (rowStore.hasBareCr()) {
+                return dropBareCr(rowStore, file, filePartition);
+            }
+            log.info("Following {} from its {} lines, indexed in {} ms", file, rowStore.size(),
+                    System.currentTimeMillis() - start);
+            return rowStore;
+        }
+        if (fileEntry.storageMode == StorageMode.OFF_HEAP) {
+            OffHeapRowStore rowStore = OffHeapRowStore.load(file, charset, filePartition, fileEntry.hasHeader);
+            if (rowStore.hasBareCr()) {
+                return dropBareCr(rowStore, file, filePartition);
+            }
+            log.info("Loaded {} lines of {} off-heap in {} ms (partition {})", rowStore.size(), file,
+                    System.currentTimeMillis() - start, filePartition);
+            return rowStore;
+        }
+        LineIndex lineIndex = LineIndex.build(file, filePartition, fileEntry.hasHeader);
+        if (lineIndex.hasBareCr()) {
+            return dropBareCr(null, file, filePartition);
+        }
+        RowStore rowStore;
+        if (fileEntry.storageMode == StorageMode.MAPPED) {
+            rowStore = new MappedRowStore(file, lineIndex, charset);
+        } else {
+            rowStore = new ChannelRowStore(file, lineIndex, charset);
+        }
+        log.info("Indexed {} lines of {} in {} ms ({}, partition {})", lineIndex.size(), file,
+                System.currentTimeMillis() - start, fileEntry.storageMode.getDisplayName(), filePartition);
+        return rowStore;
+    }
+
+    /**
+     * Drops the store of a file whose index pass met a line ending with a bare CR (classic Mac), which only the
+     * readers understand: the file is read as a stream, whole.
+     *
+     * @return null, for the stream reads
+     */
+    private static RowStore dropBareCr(RowStore rowStore, File file, FilePartition filePartition) throws IOException {
+        if (rowStore != null) {
+            rowStore.close();
+        }
+        if (!filePartition.isWhole()) {
+            warnBareCrSplit(file);
+        }
+        log.info("Lines of {} end with a bare CR, falling back to stream reads", file);
+        return null;
+    }
+
+    private static void warnBareCrSplit(File file) {
+        log.warn("Lines of {} end with a bare CR, which does not allow splitting it between engines,"
+                + " every engine serves the whole file", file);
+    }
+
+    /**
+     * Reader of the lines of a partition of the file, the header line first if the file has one.
+     */
+    private static BufferedReader createSliceReader(FileEntry fileEntry, File file, FilePartition filePartition,
+                                                    Charset charset) throws IOException {
+        if (JOrphanUtils.isBlank(fileEntry.charSetEncoding) && LineIndex.startsWithUtf8Bom(file)) {
+            charset = StandardCharsets.UTF_8;
+        }
+        FilePartition.Slice slice;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            slice = filePartition.slice(channel, fileEntry.hasHeader);
+        }
+        return new BufferedReader(new InputStreamReader(slice.open(file), charset));
+    }
+
     /**
      * Get the random line using index of the named file
      *
      * @param filename the filename or alias that was used to reserve the file
-     * @param ignoreFirstLine Consider first line as variable name ?
      * @return String containing the next line in the file
      * @throws IOException when reading of the file fails, or the file was not reserved properly
      */
-    public synchronized String readRandom(String filename, boolean ignoreFirstLine) throws IOException {
-        Random rand = new Random();
-        int startPos = ignoreFirstLine ? 1 : 0;
-        int randPos = rand.nextInt(((rowCount -1) - startPos) + 1) + startPos;
-        return readIndexed(filename, randPos);
+    public String readRandom(String filename) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        return served(fileEntry, start, readIndexed(filename, randomPos(fileEntry.dataset)));
+    }
+
+    /**
+     * Get the values of a random line of the named file, split by the parser of the file
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @return the values of the line
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readRandomValues(String filename) throws IOException {
+        return readRandomValues(filename, null);
+    }
+
+    /**
+     * Get the values of the projected columns of a random line of the named file
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param projection the columns to return, null for all of them
+     * @return the values of the line
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readRandomValues(String filename, ColumnProjection projection) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        return served(fileEntry, start, readIndexedValues(filename, randomPos(fileEntry.dataset), projection));
+    }
+
+    private static int randomPos(DatasetState dataset) {
+        return (int) (dataset.getFirstRow() + ThreadLocalRandom.current().nextLong(dataset.getRowCount()));
+    }
+
+    /**
+     * Get a line of the named file drawn with a probability proportional to its weight
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @return String containing the drawn line
+     * @throws IOException when reading of the file fails, or the weights were not calculated
+     */
+    public String readWeightedRandom(String filename) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        return served(fileEntry, start, readIndexed(filename, weightedRandomPos(fileEntry.dataset)));
+    }
+
+    /**
+     * Get the values of a line of the named file drawn with a probability proportional to its weight,
+     * split by the parser of the file
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @return the values of the drawn line
+     * @throws IOException when reading of the file fails, or the weights were not calculated
+     */
+    public String[] readWeightedRandomValues(String filename) throws IOException {
+        return readWeightedRandomValues(filename, null);
+    }
+
+    /**
+     * Get the values of the projected columns of a line of the named file drawn with a probability proportional
+     * to its weight
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param projection the columns to return, null for all of them
+     * @return the values of the drawn line
+     * @throws IOException when reading of the file fails, or the weights were not calculated
+     */
+    public String[] readWeightedRandomValues(String filename, ColumnProjection projection) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        return served(fileEntry, start,
+                readIndexedValues(filename, weightedRandomPos(fileEntry.dataset), projection));
+    }
+
+    private static int weightedRandomPos(DatasetState dataset) throws IOException {
+        WeightTable weights = dataset.getWeights();
+        if (weights == null) {
+            throw new IOException("Weights never calculated: " + dataset.getAlias());
+        }
+        return dataset.getFirstRow() + weights.pick(ThreadLocalRandom.current());
+    }
+
+    /**
+     * Get the next line of the shuffled order of the named file, each line is returned once per pass.
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param ooValue Out of value handler (new shuffled pass/abort thread/ Continue with last used value)
+     * @return String containing the line, null once all the lines were returned and not cyclic
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String readRandomUnique(String filename, OutOfValues ooValue) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        long pos = randomUniquePos(fileEntry, ooValue);
+        return served(fileEntry, start, pos < 0 ? null : readIndexed(filename, (int) pos));
     }
 
     /**
-     * Get the indexed line of the named file according to thread specific (Thread local)
+     * Get the values of the next line of the shuffled order of the named file, split by the parser of the file
      *
      * @param filename the filename or alias that was used to reserve the file
-     * @param ignoreFirstLine Consider first line as variable name?
+     * @param ooValue Out of value handler (new shuffled pass/abort thread/ Continue with last used value)
+     * @return the values of the line, null once all the lines were returned and not cyclic
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readRandomUniqueValues(String filename, OutOfValues ooValue) throws IOException {
+        return readRandomUniqueValues(filename, ooValue, null);
+    }
+
+    /**
+     * Get the values of the projected columns of the next line of the shuffled order of the named file
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param ooValue Out of value handler (new shuffled pass/abort thread/ Continue with last used value)
+     * @param projection the columns to return, null for all of them
+     * @return the values of the line, null once all the lines were returned and not cyclic
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readRandomUniqueValues(String filename, OutOfValues ooValue, ColumnProjection projection)
+            throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        long pos = randomUniquePos(fileEntry, ooValue);
+        return served(fileEntry, start, pos < 0 ? null : readIndexedValues(filename, (int) pos, projection));
+    }
+
+    /**
+     * @return the line number of the next row of the shuffled order, -1 once all the rows were drawn and not cyclic
+     */
+    private static long randomUniquePos(FileEntry fileEntry, OutOfValues ooValue) {
+        DatasetState dataset = fileEntry.dataset;
+        long rowCount = dataset.getRowCount();
+        long draw = dataset.nextDraw();
+        if (rowCount == 0 || (draw >= rowCount && ooValue != OutOfValues.CONTINUE_CYCLIC)) {
+            return -1;
+        }
+        if (fileEntry.metrics != null && draw >= rowCount && draw % rowCount == 0) {
+            fileEntry.metrics.wrapped();
+        }
+        return dataset.getFirstRow() + dataset.getPermutation().apply(draw % rowCount, draw / rowCount);
+    }
+
+    /**
+     * Get the next line of the named file from the chunk leased by the thread, each line is returned once per pass
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param lease - the chunk lease of the thread in the dataset
      * @param ooValue Out of value handler (recycle/abort thread/ Continue with last used value)
-     * @param currPos - position in the allocated block (Read position - specific to thread local)
-     * @param startPos - Starting position in the allocated block (start position - specific to thread local)
-     * @param endPos - Ending position in the allocated block (End position - specific to thread local)
-     * @return String containing the next line in the file
+     * @return String containing the next line in the file, null once all the lines were returned and not cyclic
      * @throws IOException when reading of the file fails, or the file was not reserved properly
      */
-    public synchronized String readUnique(String filename, boolean ignoreFirstLine, String ooValue, int currPos, int startPos, int endPos) throws IOException {
-        String line = null;
-        if(currPos < getRowCount()){
-            line = readIndexed(filename, currPos);
+    public String readUnique(String filename, ChunkLease lease, OutOfValues ooValue) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        long pos = uniquePos(filename, fileEntry, lease, ooValue);
+        checkpointMoved(fileEntry);
+        return served(fileEntry, start, pos < 0 ? null : readIndexed(filename, (int) pos));
+    }
+
+    /**
+     * Get the values of the next line of the named file from the chunk leased by the thread,
+     * split by the parser of the file
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param lease - the chunk lease of the thread in the dataset
+     * @param ooValue Out of value handler (recycle/abort thread/ Continue with last used value)
+     * @return the values of the line, null once all the lines were returned and not cyclic
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readUniqueValues(String filename, ChunkLease lease, OutOfValues ooValue) throws IOException {
+        return readUniqueValues(filename, lease, ooValue, null);
+    }
+
+    /**
+     * Get the values of the projected columns of the next line of the named file from the chunk leased by the thread
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param lease - the chunk lease of the thread in the dataset
+     * @param ooValue Out of value handler (recycle/abort thread/ Continue with last used value)
+     * @param projection the columns to return, null for all of them
+     * @return the values of the line, null once all the lines were returned and not cyclic
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    public String[] readUniqueValues(String filename, ChunkLease lease, OutOfValues ooValue,
+                                     ColumnProjection projection) throws IOException {
+        FileEntry fileEntry = getFileEntry(filename);
+        long start = startTimer();
+        long pos = uniquePos(filename, fileEntry, lease, ooValue);
+        checkpointMoved(fileEntry);
+        return served(fileEntry, start, pos < 0 ? null : readIndexedValues(filename, (int) pos, projection));
+    }
+
+    /**
+     * Takes the next row of the lease, renewing it from the shared row counter of the dataset when exhausted.
+     * Chunks never cross the end of the rows, with Continue Cyclic the counter starts a new pass over the rows.
+     * Otherwise, once the counter is exhausted, the rows left in the leases of the other threads are stolen.
+     *
+     * @return the line number to read, -1 once all the rows were taken and Continue with Last Value
+     */
+    private static long uniquePos(String filename, FileEntry fileEntry, ChunkLease lease, OutOfValues ooValue) {
+        DatasetState dataset = fileEntry.dataset;
+        int row = lease.next();
+        if (row >= 0) {
+            return dataset.getFirstRow() + (long) row;
         }
-        if(ooValue.equalsIgnoreCase("Continue Cyclic")){
-            if(currPos >= endPos){
-                readPos.set(startPos);
-            }else {
-                readPos.set(currPos + 1);
+        while (row < 0) {
+            long rowCount = dataset.getRowCount();
+            long taken = rowCount == 0 ? 0 : dataset.nextChunk(lease.getSize());
+            if (rowCount > 0 && (taken < rowCount || ooValue == OutOfValues.CONTINUE_CYCLIC)) {
+                long start = taken % rowCount;
+                if (fileEntry.metrics != null && taken >= rowCount && start == 0) {
+                    fileEntry.metrics.wrapped();
+                }
+                lease.assign((int) start, (int) Math.min(start + lease.getSize(), rowCount));
+            } else if (!UNIQUE_STEAL || !stealRows(dataset, lease)) {
+                if (ooValue == OutOfValues.ABORT_THREAD) {
+                    throw new JMeterStopThreadException("End of Block :" + filename + " detected for Extended CSV DataSet:"
+                            + filename + " configured with stopThread: " + ooValue.getDisplayName());
+                }
+                return -1;
             }
-        }else if(ooValue.equalsIgnoreCase("Abort Thread")){
-            if(currPos <= endPos){
-                readPos.set(currPos + 1);
-            }else{
-                throw new JMeterStopThreadException("End of Block :" + filename + " detected for Extended CSV DataSet:"
-                        + filename + " configured with stopThread: " + ooValue);
+            row = lease.next();
+        }
+        return dataset.getFirstRow() + (long) row;
+    }
+
+    /**
+     * Moves half of the rows left in the fullest lease of the dataset to an exhausted lease.
+     *
+     * @return true if rows were stolen
+     */
+    private static boolean stealRows(DatasetState dataset, ChunkLease thief) {
+        while (true) {
+            ChunkLease victim = null;
+            for (ChunkLease lease : dataset.getLeases()) {
+                if (lease != thief && (victim == null || lease.remaining() > victim.remaining())) {
+                    victim = lease;
+                }
             }
-        }else{
-            if(currPos >= endPos){
-                readPos.set(currPos);
-            }else{
-                readPos.set(currPos + 1);
+            if (victim == null || victim.remaining() == 0) {
+                return false;
+            }
+            long stolen = victim.steal();
+            if (stolen >= 0) {
+                thief.assign(ChunkLease.next(stolen), ChunkLease.end(stolen));
+                return true;
             }
         }
-        return line;
     }
 
     /**
@@ -680,12 +1927,18 @@ public class FileServerExtended {
      * @return String containing the next line in the file
      * @throws IOException when reading of the file fails, or the file was not reserved properly
      */
-
     private String readIndexed(String filename, int pos) throws IOException {
         String line = null;
         FileEntry fileEntry = files.get(filename);
         if(fileEntry != null){
-            try (Stream<String> lines = Files.lines(Paths.get(String.valueOf(fileEntry.file.toPath())))) {
+            RowStore rowStore = getRowStore(fileEntry);
+            if (rowStore != null) {
+                if (pos >= 0 && pos < rowStore.size()) {
+                    line = rowStore.getRow(pos);
+                }
+                return line;
+            }
+            try (BufferedReader reader = createBufferedReader(fileEntry); Stream<String> lines = reader.lines()) {
                 line = lines.skip(pos).findFirst().get();
             }catch(IOException e){
                 log.error(e.toString());
@@ -694,16 +1947,26 @@ public class FileServerExtended {
         return line;
     }
 
-    private enum ParserState {
-        INITIAL,
-        PLAIN,
-        QUOTED,
-        EMBEDDEDQUOTE
-    }
-    private static final char QUOTING_CHAR = '"';
-
-    private static boolean isDelimOrEOL(char delim, int ch) {
-        return ch == delim || ch == '\n' || ch == '\r';
+    /**
+     * Get the values of the indexed line of the named file, split by the parser of the file
+     *
+     * @param filename the filename or alias that was used to reserve the file
+     * @param pos - line number to fetch from the file (starts from 0)
+     * @param projection the columns to return, null for all of them
+     * @return the values of the line, null if there is no such line
+     * @throws IOException when reading of the file fails, or the file was not reserved properly
+     */
+    private String[] readIndexedValues(String filename, int pos, ColumnProjection projection) throws IOException {
+        FileEntry fileEntry = files.get(filename);
+        if (fileEntry != null) {
+            RowStore rowStore = getRowStore(fileEntry);
+            if (rowStore != null) {
+                return pos >= 0 && pos < rowStore.size() ? getValues(fileEntry, rowStore, pos, projection) : null;
+            }
+            String line = readIndexed(filename, pos);
+            return line == null ? null : parse(fileEntry, line, projection);
+        }
+        return null;
     }
 
     /**
@@ -721,104 +1984,11 @@ public class FileServerExtended {
      *             also for unexpected quote characters
      */
     public String[] csvReadLine(String line, char delimiter) throws IOException {
-        int index = 0;
-        int length = line.length();
-        ParserState state = ParserState.INITIAL;
-        List<String> list = new ArrayList<>();
-        CharArrayWriter baos = new CharArrayWriter(200);
-        boolean push = false;
-        while (index < length) {
-            push = false;
-            int ch = line.charAt(index++);
-            switch (state) {
-                case INITIAL:
-                    if (ch == QUOTING_CHAR) {
-                        state = ParserState.QUOTED;
-                    } else if (isDelimOrEOL(delimiter, ch)) {
-                        push = true;
-                    } else {
-                        baos.write(ch);
-                        state = ParserState.PLAIN;
-                    }
-                    break;
-                case PLAIN:
-                    if (ch == QUOTING_CHAR) {
-                        baos.write(ch);
-                        throw new IOException("Cannot have quote-char in plain field:[" + baos.toString() + "]");
-                    } else if (isDelimOrEOL(delimiter, ch)) {
-                        push = true;
-                        state = ParserState.INITIAL;
-                    } else {
-                        baos.write(ch);
-                    }
-                    break;
-                case QUOTED:
-                    if (ch == QUOTING_CHAR) {
-                        state = ParserState.EMBEDDEDQUOTE;
-                    } else {
-                        baos.write(ch);
-                    }
-                    break;
-                case EMBEDDEDQUOTE:
-                    if (ch == QUOTING_CHAR) {
-                        baos.write(QUOTING_CHAR); // doubled quote => quote
-                        state = ParserState.QUOTED;
-                    } else if (isDelimOrEOL(delimiter, ch)) {
-                        push = true;
-                        state = ParserState.INITIAL;
-                    } else {
-                        baos.write(QUOTING_CHAR);
-                        throw new IOException("Cannot have single quote-char in quoted field:[" + baos.toString() + "]");
-                    }
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected state " + state);
-            }
-            if (push) {
-                if (ch == '\r' && index < length && line.charAt(index) == '\n') {
-                    index++; // skip the '\n' character after '\r'
-                }
-                String s = baos.toString();
-                list.add(s);
-                baos.reset();
-            }
-        }
-        if (state == ParserState.QUOTED) {
-            throw new IOException("Missing trailing quote-char in quoted field:[\"" + baos.toString() + "\"]");
+        CsvTokenizer tokenizer = CsvTokenizer.forCurrentThread();
+        String[] values = new String[tokenizer.tokenize(line, delimiter, Integer.MAX_VALUE)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = tokenizer.get(i);
         }
-        // Do we have some data, or a trailing empty field?
-        if (baos.size() > 0 // we have some data
-                || push // we've started a field
-                || state == ParserState.EMBEDDEDQUOTE // Just seen ""
-        ) {
-            list.add(baos.toString());
-        }
-        return list.toArray(new String[list.size()]);
-    }
-
-    public static int getRowCount() {
-        return rowCount;
-    }
-    public static void setRowCount(int count) {
-        FileServerExtended.rowCount = count;
-    }
-
-    public static int getEndPos() {
-        return endPos.get();
-    }
-    public static void setEndPos(int ep) {
-        endPos.set(ep);
-    }
-    public static int getStartPos() {
-        return startPos.get();
-    }
-    public static void setStartPos(int sp) {
-        startPos.set(sp);
-    }
-    public static int getReadPos() {
-        return readPos.get();
-    }
-    public static void setReadPos(int rp) {
-        readPos.set(rp);
+        return values;
     }
 }
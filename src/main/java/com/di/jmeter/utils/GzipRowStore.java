@@ -0,0 +1,455 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Serves the rows of a gzip compressed file without keeping it decompressed.
+ * <p>
+ * The file is inflated once at load time and cut at checkpoints every few hundred KB, on line boundaries.
+ * Each window between two checkpoints is deflated again on its own, so fetching a row only inflates the
+ * window holding it, never the stream from its start. A few inflated windows are cached for all the threads,
+ * one per slot of a small direct mapped cache, so consecutive rows of the same window cost a single inflate
+ * while the memory held stays bounded whatever the number of threads.
+ * <p>
+ * The JDK inflater cannot be restarted from a saved bit position of the original stream (there is no
+ * inflatePrime), hence the checkpoints hold independently compressed windows rather than inflater states.
+ * <p>
+ * The compressed windows follow the storage mode: Off-Heap keeps them in direct buffers and Memory Mapped
+ * in a temporary file mapped in memory, so only the index and the cached windows are left on the heap.
+ */
+public class GzipRowStore implements RowStore {
+
+    private static final int DEFAULT_CHECKPOINT_SIZE = 256 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    // inflated windows kept per store, neighbouring windows go to different slots
+    private static final int CACHED_WINDOWS = 16;
+    // direct segments double from the first size up to the largest one, mapped segments are cut at the largest
+    private static final int FIRST_SEGMENT_SIZE = 64 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+    private static final int OFFSET_BITS = 31;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final Charset charset;
+    private final Windows windows;
+    // decompressed length and first row of each window
+    private final int[] windowLength;
+    private final int[] windowFirstRow;
+    // offset of each row in its decompressed window
+    private final int[] rowOffsets;
+    private final int rows;
+    private final boolean bareCr;
+    private final AtomicReferenceArray<Window> cache = new AtomicReferenceArray<>(CACHED_WINDOWS);
+
+    private GzipRowStore(Charset charset, Windows windows, int[] windowLength, int[] windowFirstRow,
+                         int[] rowOffsets, int rows, boolean bareCr) {
+        this.charset = charset;
+        this.windows = windows;
+        this.windowLength = windowLength;
+        this.windowFirstRow = windowFirstRow;
+        this.rowOffsets = rowOffsets;
+        this.rows = rows;
+        this.bareCr = bareCr;
+    }
+
+
+    /**
+     * Inflates the file and indexes its rows, a leading UTF-8 BOM is excluded from the first row.
+     *
+     * @param file the gzip file to load
+     * @param charset the charset used to decode the rows
+     * @param bomSelectsUtf8 - true to decode the rows as UTF-8 when the data starts with an UTF-8 BOM
+     * @param checkpointSize - decompressed bytes between two checkpoints (0 for the default)
+     * @return the loaded store
+     * @throws IOException when reading or inflating of the file fails
+     */
+    public static GzipRowStore load(File file, Charset charset, boolean bomSelectsUtf8, int checkpointSize)
+            throws IOException {
+        return load(file, charset, bomSelectsUtf8, checkpointSize, StorageMode.INDEXED);
+    }
+
+    /**
+     * Inflates the file and indexes its rows, keeping the compressed windows where the storage mode keeps the rows.
+     *
+     * @param file the gzip file to load
+     * @param charset the charset used to decode the rows
+     * @param bomSelectsUtf8 - true to decode the rows as UTF-8 when the data starts with an UTF-8 BOM
+     * @param checkpointSize - decompressed bytes between two checkpoints (0 for the default)
+     * @param storageMode - {@link StorageMode#OFF_HEAP} for direct memory, {@link StorageMode#MAPPED} for a mapped
+     *                    temporary file, the heap otherwise
+     * @return the loaded store
+     * @throws IOException when reading or inflating of the file, or writing of the temporary file, fails
+     */
+    public static GzipRowStore load(File file, Charset charset, boolean bomSelectsUtf8, int checkpointSize,
+                                    StorageMode storageMode) throws IOException {
+        int span = checkpointSize > 0 ? checkpointSize : DEFAULT_CHECKPOINT_SIZE;
+        Windows windows = storageMode == StorageMode.OFF_HEAP ? new DirectWindows()
+                : storageMode == StorageMode.MAPPED ? new MappedWindows() : new HeapWindows();
+        Builder builder = new Builder(span, windows);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()), READ_BUFFER_SIZE)) {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            boolean first = true;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                int from = 0;
+                if (first) {
+                    first = false;
+                    if (read >= UTF8_BOM.length && Arrays.equals(Arrays.copyOf(buffer, UTF8_BOM.length), UTF8_BOM)) {
+                        from = UTF8_BOM.length;
+                        if (bomSelectsUtf8) {
+                            charset = StandardCharsets.UTF_8;
+                        }
+                    }
+                }
+                builder.append(buffer, from, read);
+            }
+            return builder.build(charset);
+        } catch (IOException | RuntimeException e) {
+            windows.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if a line of the decompressed bytes ends with a CR which is not followed by a LF, the lines are
+     * then only split correctly by the readers
+     */
+    public boolean hasBareCr() {
+        return bareCr;
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public String getRow(int row) throws IOException {
+        int index = windowOf(row);
+        byte[] data = inflate(index);
+        int start = rowOffsets[row];
+        int end = row + 1 < rows && windowOf(row + 1) == index ? rowOffsets[row + 1] : windowLength[index];
+        return LineIndex.decode(data, start, end - start, charset);
+    }
+
+    private int windowOf(int row) {
+        int idx = Arrays.binarySearch(windowFirstRow, row);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    private byte[] inflate(int index) throws IOException {
+        int slot = index % CACHED_WINDOWS;
+        Window cached = cache.get(slot);
+        if (cached != null && cached.index == index) {
+            return cached.data;
+        }
+        byte[] data = new byte[windowLength[index]];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(windows.get(index));
+            int length = 0;
+            while (length < data.length) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated checkpoint window " + index);
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted checkpoint window " + index, e);
+        } finally {
+            inflater.end();
+        }
+        cache.set(slot, new Window(index, data));
+        return data;
+    }
+
+    @Override
+    public void close() {
+        windows.close();
+        for (int slot = 0; slot < CACHED_WINDOWS; slot++) {
+            cache.set(slot, null);
+        }
+    }
+
+    private static final class Window {
+        private final int index;
+        private final byte[] data;
+
+        Window(int index, byte[] data) {
+            this.index = index;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Compressed windows, in the order they are sealed.
+     */
+    private abstract static class Windows {
+        abstract void add(byte[] compressed, int length) throws IOException;
+
+        /**
+         * Called once the last window is added, before any {@link #get}.
+         */
+        void seal() throws IOException {
+        }
+
+        /**
+         * @param index the window number
+         * @return the compressed bytes of the window
+         */
+        abstract byte[] get(int index);
+
+        abstract void close();
+    }
+
+    private static final class HeapWindows extends Windows {
+        private byte[][] windows = new byte[16][];
+        private int count;
+
+        @Override
+        void add(byte[] compressed, int length) {
+            if (count == windows.length) {
+                windows = Arrays.copyOf(windows, count << 1);
+            }
+            windows[count++] = Arrays.copyOf(compressed, length);
+        }
+
+        @Override
+        byte[] get(int index) {
+            return windows[index];
+        }
+
+        @Override
+        void close() {
+            Arrays.fill(windows, null);
+        }
+    }
+
+    /**
+     * Windows packed in buffers outside of the heap, a window is never split between two buffers.
+     * Each window start is packed in a long as buffer number (high bits) and offset in the buffer (low 31 bits).
+     */
+    private abstract static class SegmentWindows extends Windows {
+        final List<ByteBuffer> segments = new ArrayList<>();
+        long[] starts = new long[16];
+        int[] lengths = new int[16];
+        int count;
+
+        void addWindow(long start, int length) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count << 1);
+                lengths = Arrays.copyOf(lengths, count << 1);
+            }
+            starts[count] = start;
+            lengths[count++] = length;
+        }
+
+        @Override
+        byte[] get(int index) {
+            // the JDK 8 inflater only takes arrays, the window is copied out of its buffer
+            byte[] bytes = new byte[lengths[index]];
+            ByteBuffer view = segments.get((int) (starts[index] >>> OFFSET_BITS)).duplicate();
+            ((Buffer) view).position((int) (starts[index] & OFFSET_MASK));
+            view.get(bytes);
+            return bytes;
+        }
+
+        @Override
+        void close() {
+            segments.clear();
+        }
+    }
+
+    private static final class DirectWindows extends SegmentWindows {
+        @Override
+        void add(byte[] compressed, int length) {
+            ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.remaining() < length) {
+                int size = segment == null ? FIRST_SEGMENT_SIZE : (int) Math.min(MAX_SEGMENT_SIZE, segment.capacity() * 2L);
+                segment = ByteBuffer.allocateDirect(Math.max(size, length));
+                segments.add(segment);
+            }
+            addWindow(((long) (segments.size() - 1) << OFFSET_BITS) | segment.position(), length);
+            segment.put(compressed, 0, length);
+        }
+    }
+
+    /**
+     * Writes the windows to a temporary file, mapped once complete. The file is deleted as soon as it is mapped
+     * where the platform allows it, at exit otherwise.
+     */
+    private static final class MappedWindows extends SegmentWindows {
+        private File file;
+        private FileChannel channel;
+        private long size;
+
+        @Override
+        void add(byte[] compressed, int length) throws IOException {
+            if (channel == null) {
+                file = File.createTempFile("extendedcsv-gzip", ".windows");
+                file.deleteOnExit();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(compressed, 0, length);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, size + bytes.position());
+            }
+            // file offsets until sealed
+            addWindow(size, length);
+            size += length;
+        }
+
+        @Override
+        void seal() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            try {
+                long segmentStart = 0;
+                for (int i = 0; i < count; i++) {
+                    if (starts[i] + lengths[i] - segmentStart > MAX_SEGMENT_SIZE) {
+                        map(segmentStart, starts[i]);
+                        segmentStart = starts[i];
+                    }
+                    starts[i] = ((long) segments.size() << OFFSET_BITS) | (starts[i] - segmentStart);
+                }
+                map(segmentStart, size);
+            } finally {
+                channel.close();
+                channel = null;
+            }
+            // refused while mapped on some platforms, the file then goes at exit
+            file.delete();
+        }
+
+        private void map(long from, long to) throws IOException {
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from));
+        }
+
+        @Override
+        void close() {
+            super.close();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // the file is deleted at exit
+                }
+                channel = null;
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Accumulates the decompressed bytes of a window and seals it at the first line end past the checkpoint size.
+     */
+    private static final class Builder {
+        private final int span;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        private byte[] current;
+        private int used;
+        private boolean rowOpen;
+        private int rows;
+        private int[] rowOffsets = new int[1024];
+        private final Windows windows;
+        private final LineIndex.BareCrScan lineEnds = new LineIndex.BareCrScan();
+        private int[] windowLength = new int[16];
+        private int[] windowFirstRow = new int[16];
+        private int windowCount;
+        private int windowFirstRowPending;
+
+        Builder(int span, Windows windows) {
+            this.span = span;
+            this.windows = windows;
+            this.current = new byte[span];
+        }
+
+        void append(byte[] bytes, int from, int to) throws IOException {
+            lineEnds.scan(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), from, to);
+            for (int i = from; i < to; i++) {
+                if (!rowOpen) {
+                    if (used >= span) {
+                        seal();
+                    }
+                    addRow(used);
+                    rowOpen = true;
+                }
+                if (used == current.length) {
+                    // a line longer than the checkpoint size, the window grows to hold it
+                    current = Arrays.copyOf(current, current.length << 1);
+                }
+                byte b = bytes[i];
+                current[used++] = b;
+                if (b == '\n') {
+                    rowOpen = false;
+                }
+            }
+        }
+
+        private void addRow(int offset) {
+            if (rows == rowOffsets.length) {
+                rowOffsets = Arrays.copyOf(rowOffsets, rows << 1);
+            }
+            rowOffsets[rows++] = offset;
+        }
+
+        private void seal() throws IOException {
+            if (used == 0) {
+                return;
+            }
+            if (windowCount == windowLength.length) {
+                windowLength = Arrays.copyOf(windowLength, windowCount << 1);
+                windowFirstRow = Arrays.copyOf(windowFirstRow, windowCount << 1);
+            }
+            deflater.reset();
+            deflater.setInput(current, 0, used);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, used / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length << 1);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            windows.add(out, length);
+            windowLength[windowCount] = used;
+            windowFirstRow[windowCount] = windowFirstRowPending;
+            windowCount++;
+            windowFirstRowPending = rows;
+            used = 0;
+            if (current.length > span) {
+                current = new byte[span];
+            }
+        }
+
+        GzipRowStore build(Charset charset) throws IOException {
+            seal();
+            deflater.end();
+            windows.seal();
+            return new GzipRowStore(charset, windows, Arrays.copyOf(windowLength, windowCount),
+                    Arrays.copyOf(windowFirstRow, windowCount), Arrays.copyOf(rowOffsets, rows), rows,
+                    lineEnds.found() || lineEnds.endsWithCr());
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Byte offset index of the line starts of a file.
+ * <p>
+ * The index is built once with a single pass over the raw bytes of the file and
+ * kept in a primitive long array, so that any line can be fetched with a single
+ * positional read instead of re-scanning the file from the beginning.
+ * Lines are terminated by LF, an optional CR before the LF is stripped on read. A CR which is not followed by a LF
+ * (classic Mac line ending) is reported by {@link #hasBareCr()}, such files are left to the readers.
+ */
+public final class LineIndex {
+
+    private static final int SCAN_BUFFER_SIZE = 1 << 20;
+    private static final long PARALLEL_SCAN_THRESHOLD = 64L * 1024 * 1024;
+    private static final long LF_WORD = 0x0A0A0A0A0A0A0A0AL;
+    private static final long CR_WORD = 0x0D0D0D0D0D0D0D0DL;
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    static final int UTF8_BOM_LENGTH = UTF8_BOM.length;
+
+    // offsets[i] is the start of line i, offsets[lineCount] is the end of the data
+    private final long[] offsets;
+    private final int lineCount;
+    // end of the header line when it is detached from the following lines, -1 otherwise
+    private final long headerEnd;
+    private final boolean bareCr;
+
+    private LineIndex(long[] offsets, int lineCount, long headerEnd, boolean bareCr) {
+        this.offsets = offsets;
+        this.lineCount = lineCount;
+        this.headerEnd = headerEnd;
+        this.bareCr = bareCr;
+    }
+
+    /**
+     * Checks whether the line terminators of the charset can be located by scanning raw bytes,
+     * i.e. CR and LF are encoded as the single bytes 0x0D and 0x0A.
+     *
+     * @param charset the charset of the file
+     * @return true if a byte offset index can be built for the charset
+     */
+    public static boolean isIndexable(Charset charset) {
+        if (!charset.canEncode()) {
+            return false;
+        }
+        byte[] eol = "\r\n".getBytes(charset);
+        return eol.length == 2 && eol[0] == CR && eol[1] == LF;
+    }
+
+    /**
+     * Scans the file and records the start offset of every line.
+     * <p>
+     * The scan works on raw bytes read into direct buffers, 8 bytes at a time, without decoding anything.
+     * Files above {@value #PARALLEL_SCAN_THRESHOLD} bytes are split in ranges scanned concurrently,
+     * one per core, and merged in file order. The number of lines and the bare CRs come from the same pass.
+     *
+     * @param file the file to index
+     * @return the line index of the file
+     * @throws IOException when reading of the file fails
+     */
+    public static LineIndex build(File file) throws IOException {
+        return build(file, FilePartition.WHOLE, false);
+    }
+
+    /**
+     * Scans the lines of a partition of the file, the bytes outside of the partition are never read.
+     *
+     * @param file the file to index
+     * @param partition the share of the lines to index
+     * @param keepHeader - true to index the first line of the file even when it is not part of the partition
+     * @return the line index of the partition, the header line first if kept
+     * @throws IOException when reading of the file fails
+     */
+    public static LineIndex build(File file, FilePartition partition, boolean keepHeader) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FilePartition.Slice slice = partition.slice(channel, keepHeader);
+            long from = slice.getFrom();
+            long to = slice.getTo();
+            int parts = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                    (to - from) / PARALLEL_SCAN_THRESHOLD));
+            long partSize = (to - from) / parts;
+            long size = channel.size();
+            long[][] found = new long[parts][];
+            BareCrScan[] lineEnds = new BareCrScan[parts];
+            try {
+                IntStream.range(0, parts).parallel().forEach(part -> {
+                    long partFrom = from + part * partSize;
+                    long partTo = part == parts - 1 ? to : partFrom + partSize;
+                    lineEnds[part] = new BareCrScan();
+                    try {
+                        found[part] = scanRange(channel, partFrom, partTo, to, lineEnds[part]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            boolean bareCr = false;
+            for (int part = 0; part < parts && !bareCr; part++) {
+                long partTo = part == parts - 1 ? to : from + (part + 1) * partSize;
+                // a CR ending a part is followed by the first byte of the next one
+                bareCr = lineEnds[part].found() || lineEnds[part].endsWithCr() && !followedByLf(channel, partTo, size);
+            }
+            if (!bareCr && slice.hasDetachedHeader()) {
+                BareCrScan header = new BareCrScan();
+                scanRange(channel, slice.getHeaderStart(), slice.getHeaderEnd(), slice.getHeaderEnd(), header);
+                bareCr = header.found();
+            }
+            int head = slice.hasDetachedHeader() ? 1 : 0;
+            int count = head + (from < to ? 1 : 0);
+            for (long[] partStarts : found) {
+                count += partStarts.length;
+            }
+            long[] offsets = new long[count + 1];
+            int index = 0;
+            if (head > 0) {
+                offsets[index++] = slice.getHeaderStart();
+            }
+            if (from < to) {
+                offsets[index++] = from;
+            }
+            for (long[] partStarts : found) {
+                System.arraycopy(partStarts, 0, offsets, index, partStarts.length);
+                index += partStarts.length;
+            }
+            offsets[count] = to;
+            return new LineIndex(offsets, count, slice.getHeaderEnd(), bareCr);
+        }
+    }
+
+    /**
+     * Moves a position forward to the next line start.
+     *
+     * @param channel the channel of the file
+     * @param position any position in the file
+     * @param dataStart the start of the first line
+     * @return the position if a line starts there, else the position following the next LF, or the end of the file
+     * @throws IOException when reading of the file fails
+     */
+    static long lineStart(FileChannel channel, long position, long dataStart) throws IOException {
+        long size = channel.size();
+        if (position <= dataStart) {
+            return dataStart;
+        }
+        if (position >= size) {
+            return size;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long from = position - 1;
+        while (from < size) {
+            ((Buffer) buffer).clear();
+            int read = channel.read(buffer, from);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == LF) {
+                    return from + i + 1;
+                }
+            }
+            from += read;
+        }
+        return size;
+    }
+
+    private static boolean followedByLf(FileChannel channel, long position, long size) throws IOException {
+        if (position >= size) {
+            // a CR ending the whole content ends its last line
+            return false;
+        }
+        ByteBuffer next = ByteBuffer.allocate(1);
+        return channel.read(next, position) == 1 && next.get(0) == LF;
+    }
+
+    /**
+     * Finds the line starts following a LF in the range of the file.
+     *
+     * @param lineEnds - looks for a bare CR in the bytes of the range
+     * @return the offsets following each LF of the range, except the end of the indexed data
+     */
+    private static long[] scanRange(FileChannel channel, long from, long to, long size, BareCrScan lineEnds)
+            throws IOException {
+        long[] starts = new long[1024];
+        int count = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long position = from;
+        while (position < to) {
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit((int) Math.min(SCAN_BUFFER_SIZE, to - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            int i = 0;
+            while (i < read) {
+                int lf;
+                if (i <= read - Long.BYTES) {
+                    // look for a LF in the next 8 bytes at once, the lowest flagged byte is the first LF
+                    long word = buffer.getLong(i) ^ LF_WORD;
+                    long flags = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+                    if (flags == 0) {
+                        i += Long.BYTES;
+                        continue;
+                    }
+                    lf = i + (Long.numberOfTrailingZeros(flags) >>> 3);
+                } else if (buffer.get(i) == LF) {
+                    lf = i;
+                } else {
+                    i++;
+                    continue;
+                }
+                long next = position + lf + 1;
+                if (next < size) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length << 1);
+                    }
+                    starts[count++] = next;
+                }
+                i = lf + 1;
+            }
+            lineEnds.scan(buffer, 0, read);
+            position += read;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Checks a whole file for a CR which is not followed by a LF, i.e. a line end the byte scanners do not see,
+     * for the files read without building an index. The encoding of the file must be indexable.
+     *
+     * @param file the file to check
+     * @return true if the file holds a bare CR
+     * @throws IOException when reading of the file fails
+     */
+    public static boolean hasBareCr(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            BareCrScan lineEnds = new BareCrScan();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long position = 0;
+            int read;
+            while (!lineEnds.found() && (read = channel.read(buffer, position)) > 0) {
+                lineEnds.scan(buffer, 0, read);
+                position += read;
+                ((Buffer) buffer).clear();
+            }
+            return lineEnds.found() || lineEnds.endsWithCr();
+        }
+    }
+
+    /**
+     * Looks for a CR which is not followed by a LF in consecutive chunks of the content of a file,
+     * 8 bytes at a time. A CR ending a chunk is checked against the first byte of the next one.
+     */
+    static final class BareCrScan {
+        private boolean found;
+        private boolean endsWithCr;
+
+        /**
+         * @param buffer the bytes of the chunk, in little endian order
+         * @param from the index of the first byte of the chunk
+         * @param to the index following the last byte of the chunk
+         */
+        void scan(ByteBuffer buffer, int from, int to) {
+            if (found || from >= to) {
+                return;
+            }
+            if (endsWithCr && buffer.get(from) != LF) {
+                found = true;
+                return;
+            }
+            endsWithCr = false;
+            int i = from;
+            while (i < to) {
+                int cr;
+                if (i <= to - Long.BYTES) {
+                    long word = buffer.getLong(i) ^ CR_WORD;
+                    long flags = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+                    if (flags == 0) {
+                        i += Long.BYTES;
+                        continue;
+                    }
+                    cr = i + (Long.numberOfTrailingZeros(flags) >>> 3);
+                } else if (buffer.get(i) == CR) {
+                    cr = i;
+                } else {
+                    i++;
+                    continue;
+                }
+                if (cr + 1 == to) {
+                    endsWithCr = true;
+                    return;
+                }
+                if (buffer.get(cr + 1) != LF) {
+                    found = true;
+                    return;
+                }
+                i = cr + 2;
+            }
+        }
+
+        /**
+         * @return true if a CR followed by another byte than LF was scanned
+         */
+        boolean found() {
+            return found;
+        }
+
+        /**
+         * @return true if the last byte scanned is a CR, a bare one when it also ends the content
+         */
+        boolean endsWithCr() {
+            return endsWithCr;
+        }
+    }
+
+    /**
+     * @param file the file to check
+     * @return true if the file starts with an UTF-8 byte order mark, which is excluded from the first line
+     * @throws IOException when reading of the file fails
+     */
+    public static boolean startsWithUtf8Bom(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return startsWithUtf8Bom(channel);
+        }
+    }
+
+    static boolean startsWithUtf8Bom(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(UTF8_BOM.length);
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+            // keep reading until the bom sized header is complete or EOF
+        }
+        return !head.hasRemaining() && Arrays.equals(head.array(), UTF8_BOM);
+    }
+
+    /**
+     * @return true if a line of the indexed bytes ends with a CR which is not followed by a LF, the lines are
+     * then only split correctly by the readers
+     */
+    public boolean hasBareCr() {
+        return bareCr;
+    }
+
+    /**
+     * @return number of lines in the indexed file
+     */
+    public int size() {
+        return lineCount;
+    }
+
+    /**
+     * @param line - line number (starts from 0)
+     * @return offset of the first byte of the line
+     */
+    public long start(int line) {
+        return offsets[line];
+    }
+
+    /**
+     * @param line - line number (starts from 0)
+     * @return offset following the last byte of the line, including its terminator
+     */
+    public long end(int line) {
+        return line == 0 && headerEnd >= 0 ? headerEnd : offsets[line + 1];
+    }
+
+    /**
+     * Decodes the bytes of a line, dropping a trailing LF or CRLF.
+     *
+     * @param bytes the raw bytes holding the line
+     * @param offset the offset of the line in the array
+     * @param length the length of the line including its terminator
+     * @param charset the charset used to decode the line
+     * @return the decoded line
+     */
+    static String decode(byte[] bytes, int offset, int length, Charset charset) {
+        int end = offset + length;
+        if (end > offset && bytes[end - 1] == LF) {
+            end--;
+            if (end > offset && bytes[end - 1] == CR) {
+                end--;
+            }
+        }
+        return new String(bytes, offset, end - offset, charset);
+    }
+}
@@ -0,0 +1,100 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Serves rows straight out of memory mapped regions of the file.
+ * <p>
+ * A single mapping is limited to 2 GB, so larger files are mapped in segments.
+ * Segment boundaries are placed on line starts, hence every row is contained in exactly one segment.
+ * The mapping is released by the garbage collector once the store is closed and unreferenced.
+ */
+public class MappedRowStore implements RowStore {
+
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final LineIndex lineIndex;
+    private final Charset charset;
+    private final MappedByteBuffer[] segments;
+    // first row and file offset of each segment
+    private final int[] segmentFirstRow;
+    private final long[] segmentOffset;
+
+    public MappedRowStore(File file, LineIndex lineIndex, Charset charset) throws IOException {
+        this(file, lineIndex, charset, MAX_SEGMENT_SIZE);
+    }
+
+    MappedRowStore(File file, LineIndex lineIndex, Charset charset, long maxSegmentSize) throws IOException {
+        this.lineIndex = lineIndex;
+        this.charset = charset;
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        int[] firstRows = new int[1];
+        long[] offsets = new long[1];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int row = 0;
+            while (row < lineIndex.size()) {
+                long start = lineIndex.start(row);
+                int last = row;
+                // extend the segment with whole rows while it fits in a single mapping
+                while (last + 1 < lineIndex.size() && lineIndex.end(last + 1) - start <= maxSegmentSize) {
+                    last++;
+                }
+                long length = lineIndex.end(last) - start;
+                if (length > maxSegmentSize) {
+                    throw new IOException("Line " + row + " of " + file + " exceeds the maximum mapped size");
+                }
+                if (mapped.size() == firstRows.length) {
+                    firstRows = Arrays.copyOf(firstRows, firstRows.length << 1);
+                    offsets = Arrays.copyOf(offsets, offsets.length << 1);
+                }
+                firstRows[mapped.size()] = row;
+                offsets[mapped.size()] = start;
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+                row = last + 1;
+            }
+        }
+        this.segments = mapped.toArray(new MappedByteBuffer[0]);
+        this.segmentFirstRow = Arrays.copyOf(firstRows, segments.length);
+        this.segmentOffset = Arrays.copyOf(offsets, segments.length);
+    }
+
+    @Override
+    public int size() {
+        return lineIndex.size();
+    }
+
+    @Override
+    public String getRow(int row) {
+        int segment = segmentOf(row);
+        long start = lineIndex.start(row);
+        byte[] bytes = new byte[(int) (lineIndex.end(row) - start)];
+        // duplicate keeps the position private to the calling thread
+        ByteBuffer view = segments[segment].duplicate();
+        ((Buffer) view).position((int) (start - segmentOffset[segment]));
+        view.get(bytes);
+        return LineIndex.decode(bytes, 0, bytes.length, charset);
+    }
+
+    private int segmentOf(int row) {
+        if (segments.length == 1) {
+            return 0;
+        }
+        int idx = Arrays.binarySearch(segmentFirstRow, row);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    @Override
+    public void close() {
+        // mapped buffers cannot be unmapped explicitly on Java 8, they are released with the store
+    }
+}
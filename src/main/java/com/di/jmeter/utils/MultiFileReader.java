@@ -0,0 +1,93 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads the lines of several files one file after the other, as if they were concatenated.
+ * <p>
+ * A line break is inserted after a file not ending with one, so its last line is never joined
+ * with the first line of the next file. The first line of every file but the first one can be
+ * skipped, to drop the header repeated at the top of each part of a dataset.
+ */
+public class MultiFileReader extends Reader {
+
+    /**
+     * Opens the reader of a part.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        Reader open(File part) throws IOException;
+    }
+
+    private final List<File> parts;
+    private final Opener opener;
+    private final boolean skipFirstLine;
+    private int next;
+    private Reader current;
+    private int last = '\n';
+    private boolean pendingBreak;
+
+    /**
+     * @param parts the files to read, in order
+     * @param opener - opens the reader of each file when its turn comes
+     * @param skipFirstLine - true to skip the first line of every file but the first one
+     */
+    public MultiFileReader(List<File> parts, Opener opener, boolean skipFirstLine) {
+        this.parts = parts;
+        this.opener = opener;
+        this.skipFirstLine = skipFirstLine;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            if (pendingBreak) {
+                pendingBreak = false;
+                buffer[offset] = '\n';
+                last = '\n';
+                return 1;
+            }
+            if (current == null && !openNext()) {
+                return -1;
+            }
+            int read = current.read(buffer, offset, length);
+            if (read > 0) {
+                last = buffer[offset + read - 1];
+                return read;
+            }
+            current.close();
+            current = null;
+            pendingBreak = last != '\n' && last != '\r';
+        }
+    }
+
+    private boolean openNext() throws IOException {
+        if (next >= parts.size()) {
+            return false;
+        }
+        boolean skip = skipFirstLine && next > 0;
+        current = opener.open(parts.get(next++));
+        if (skip) {
+            int c;
+            while ((c = current.read()) != -1 && c != '\n') {
+                // drop the header line, up to and including its LF
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        next = parts.size();
+    }
+}
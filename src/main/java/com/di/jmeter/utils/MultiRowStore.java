@@ -0,0 +1,99 @@
+package com.di.jmeter.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Rows of several files served as one dataset, numbered across the files in their order.
+ * <p>
+ * Each part keeps its own store, only the first row number of each part is recorded here and
+ * a row is mapped to its part with a binary search. Parts may skip their first row, so that
+ * the header repeated at the top of every part is only served once.
+ */
+public class MultiRowStore implements RowStore {
+
+    private final RowStore[] parts;
+    // rows skipped at the top of each part
+    private final int[] skip;
+    // firstRow[i] is the global number of the first row of part i, firstRow[parts.length] the total
+    private final int[] firstRow;
+
+    /**
+     * @param parts the stores of the files, in dataset order
+     * @param skipFirstRow - true to drop the first row of every part but the first one
+     */
+    public MultiRowStore(RowStore[] parts, boolean skipFirstRow) {
+        this.parts = parts;
+        this.skip = new int[parts.length];
+        this.firstRow = new int[parts.length + 1];
+        long rows = 0;
+        for (int i = 0; i < parts.length; i++) {
+            skip[i] = skipFirstRow && i > 0 ? Math.min(1, parts[i].size()) : 0;
+            firstRow[i] = (int) rows;
+            rows += parts[i].size() - skip[i];
+        }
+        if (rows > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many rows in " + parts.length + " files: " + rows);
+        }
+        firstRow[parts.length] = (int) rows;
+    }
+
+    @Override
+    public int size() {
+        return firstRow[parts.length];
+    }
+
+    @Override
+    public String getRow(int row) throws IOException {
+        int part = partOf(row);
+        return parts[part].getRow(row - firstRow[part] + skip[part]);
+    }
+
+    @Override
+    public String[] getValues(int row, RowParser parser) throws IOException {
+        int part = partOf(row);
+        return parts[part].getValues(row - firstRow[part] + skip[part], parser);
+    }
+
+    @Override
+    public String[] getValues(int row, RowParser parser, ColumnProjection projection) throws IOException {
+        int part = partOf(row);
+        return parts[part].getValues(row - firstRow[part] + skip[part], parser, projection);
+    }
+
+    @Override
+    public String getValue(int row, int column, RowParser parser) throws IOException {
+        int part = partOf(row);
+        return parts[part].getValue(row - firstRow[part] + skip[part], column, parser);
+    }
+
+    private int partOf(int row) {
+        if (row < 0 || row >= size()) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size());
+        }
+        // empty parts share their first row with the next part, take the last of them
+        int idx = Arrays.binarySearch(firstRow, 0, parts.length, row);
+        if (idx < 0) {
+            return -idx - 2;
+        }
+        while (idx + 1 < parts.length && firstRow[idx + 1] == row) {
+            idx++;
+        }
+        return idx;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (RowStore part : parts) {
+            try {
+                part.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the raw bytes of the rows and their offset table in direct (off-heap) buffers.
+ * <p>
+ * The heap only holds the buffer references, so datasets larger than the heap are served from memory
+ * without adding to the GC work, and only the row of the current fetch is decoded to a String.
+ * Data is copied in segments, a row is never split between two segments. Each row start is packed in a long
+ * as segment number (high bits) and offset in the segment (low 31 bits).
+ * Direct memory is bounded by {@code -XX:MaxDirectMemorySize} and released by the GC once the store is dropped.
+ */
+public class OffHeapRowStore implements RowStore {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    private static final int OFFSET_SEGMENT_SHIFT = 24;
+    private static final int OFFSET_SEGMENT_ROWS = 1 << OFFSET_SEGMENT_SHIFT;
+    private static final int OFFSET_SEGMENT_MASK = OFFSET_SEGMENT_ROWS - 1;
+    private static final int INITIAL_OFFSET_ROWS = 1 << 16;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int OFFSET_BITS = 31;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final Charset charset;
+    private final int segmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<LongBuffer> rowStarts = new ArrayList<>();
+    private int rows;
+    // true while the row being loaded has bytes but no terminator yet
+    private boolean rowOpen;
+    // bytes left to load, segments are sized to them so small files do not reserve a full segment
+    private long remaining;
+    private final LineIndex.BareCrScan lineEnds = new LineIndex.BareCrScan();
+
+    private OffHeapRowStore(Charset charset, int segmentSize) {
+        this.charset = charset;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Copies the file off-heap and indexes its rows in a single pass.
+     *
+     * @param file the file to load
+     * @param charset the charset used to decode the rows
+     * @return the loaded store
+     * @throws IOException when reading of the file fails or a row does not fit in a segment
+     */
+    public static OffHeapRowStore load(File file, Charset charset) throws IOException {
+        return load(file, charset, FilePartition.WHOLE, false);
+    }
+
+    /**
+     * Copies the lines of a partition of the file off-heap, the bytes outside of the partition are never read.
+     *
+     * @param file the file to load
+     * @param charset the charset used to decode the rows
+     * @param partition the share of the lines to load
+     * @param keepHeader - true to load the first line of the file even when it is not part of the partition
+     * @return the loaded store, the header line first if kept
+     * @throws IOException when reading of the file fails or a row does not fit in a segment
+     */
+    public static OffHeapRowStore load(File file, Charset charset, FilePartition partition, boolean keepHeader)
+            throws IOException {
+        return load(file, charset, partition, keepHeader, DEFAULT_SEGMENT_SIZE);
+    }
+
+    static OffHeapRowStore load(File file, Charset charset, FilePartition partition, boolean keepHeader,
+                                int segmentSize) throws IOException {
+        OffHeapRowStore store = new OffHeapRowStore(charset, segmentSize);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FilePartition.Slice slice = partition.slice(channel, keepHeader);
+            store.remaining = slice.getTo() - slice.getFrom()
+                    + (slice.hasDetachedHeader() ? slice.getHeaderEnd() - slice.getHeaderStart() : 0);
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (slice.hasDetachedHeader()) {
+                store.copy(channel, buffer, slice.getHeaderStart(), slice.getHeaderEnd());
+            }
+            store.copy(channel, buffer, slice.getFrom(), slice.getTo());
+        }
+        if (!store.segments.isEmpty()) {
+            ByteBuffer last = store.segments.get(store.segments.size() - 1);
+            ((Buffer) last).limit(last.position());
+        }
+        return store;
+    }
+
+    /**
+     * Appends the rows of a range of the file, the range ends at a line start or at the end of the file.
+     */
+    private void copy(FileChannel channel, ByteBuffer buffer, long position, long end) throws IOException {
+        byte[] bytes = buffer.array();
+        int read;
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), end - position));
+        while (position < end && (read = channel.read(buffer, position)) > 0) {
+            int from = 0;
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    append(bytes, from, i + 1 - from);
+                    rowOpen = false;
+                    from = i + 1;
+                }
+            }
+            lineEnds.scan(buffer, 0, read);
+            if (from < read) {
+                append(bytes, from, read - from);
+            }
+            position += read;
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), end - position));
+        }
+        // a range ends with a complete row, even without a final LF
+        rowOpen = false;
+    }
+
+    private void append(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.remaining() < length) {
+            segment = moveOpenRow(segment, length);
+        }
+        if (!rowOpen) {
+            addRowStart(((long) (segments.size() - 1) << OFFSET_BITS) | segment.position());
+            rowOpen = true;
+        }
+        segment.put(bytes, offset, length);
+        remaining -= length;
+    }
+
+    /**
+     * Starts a new segment, moving the bytes of the row being loaded so that it stays in one segment.
+     */
+    private ByteBuffer moveOpenRow(ByteBuffer current, int length) throws IOException {
+        int rowStart = 0;
+        int rowLength = 0;
+        if (current != null && rowOpen) {
+            rowStart = (int) (rowStarts.get((rows - 1) >>> OFFSET_SEGMENT_SHIFT).get((rows - 1) & OFFSET_SEGMENT_MASK) & OFFSET_MASK);
+            rowLength = current.position() - rowStart;
+        }
+        if ((long) rowLength + length > segmentSize) {
+            throw new IOException("Line " + rows + " exceeds the off-heap segment size of " + segmentSize + " bytes");
+        }
+        ByteBuffer segment = ByteBuffer.allocateDirect((int) Math.min(segmentSize,
+                rowLength + Math.max(length, remaining)));
+        if (rowLength > 0) {
+            ByteBuffer moved = current.duplicate();
+            ((Buffer) moved).position(rowStart).limit(rowStart + rowLength);
+            segment.put(moved);
+            ((Buffer) current).position(rowStart);
+        }
+        if (current != null) {
+            ((Buffer) current).limit(current.position());
+        }
+        segments.add(segment);
+        if (current != null && rowOpen) {
+            setRowStart(rows - 1, (long) (segments.size() - 1) << OFFSET_BITS);
+        }
+        return segment;
+    }
+
+    private void addRowStart(long packed) {
+        int slot = rows & OFFSET_SEGMENT_MASK;
+        if (slot == 0) {
+            rowStarts.add(ByteBuffer.allocateDirect(INITIAL_OFFSET_ROWS * Long.BYTES).asLongBuffer());
+        } else if (slot == rowStarts.get(rowStarts.size() - 1).capacity()) {
+            // blocks double up to OFFSET_SEGMENT_ROWS offsets, the full block is only reserved for large files
+            LongBuffer full = rowStarts.get(rowStarts.size() - 1);
+            LongBuffer grown = ByteBuffer.allocateDirect(Math.min(slot << 1, OFFSET_SEGMENT_ROWS) * Long.BYTES)
+                    .asLongBuffer();
+            ((Buffer) full).clear();
+            grown.put(full);
+            rowStarts.set(rowStarts.size() - 1, grown);
+        }
+        setRowStart(rows++, packed);
+    }
+
+    private void setRowStart(int row, long packed) {
+        rowStarts.get(row >>> OFFSET_SEGMENT_SHIFT).put(row & OFFSET_SEGMENT_MASK, packed);
+    }
+
+    private long rowStart(int row) {
+        return rowStarts.get(row >>> OFFSET_SEGMENT_SHIFT).get(row & OFFSET_SEGMENT_MASK);
+    }
+
+    /**
+     * @return true if a line of the loaded bytes ends with a CR which is not followed by a LF, the lines are
+     * then only split correctly by the readers
+     */
+    public boolean hasBareCr() {
+        return lineEnds.found() || lineEnds.endsWithCr();
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public String getRow(int row) {
+        long packed = rowStart(row);
+        int segment = (int) (packed >>> OFFSET_BITS);
+        int start = (int) (packed & OFFSET_MASK);
+        int end;
+        if (row + 1 < rows && (rowStart(row + 1) >>> OFFSET_BITS) == segment) {
+            end = (int) (rowStart(row + 1) & OFFSET_MASK);
+        } else {
+            // last row of its segment, the limit of the segment marks its end
+            end = segments.get(segment).limit();
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = segments.get(segment).duplicate();
+        ((Buffer) view).limit(end).position(start);
+        view.get(bytes);
+        return LineIndex.decode(bytes, 0, bytes.length, charset);
+    }
+
+    @Override
+    public void close() {
+        segments.clear();
+        rowStarts.clear();
+        rows = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package com.di.jmeter.utils;
+
+/**
+ * Behaviour of a dataset once a thread has no more rows to read.
+ */
+public enum OutOfValues {
+    /** Start again from the first row of the file or block */
+    CONTINUE_CYCLIC("Continue Cyclic"),
+    /** Keep the values of the last row read */
+    CONTINUE_WITH_LAST_VALUE("Continue with Last Value"),
+    /** Stop the thread */
+    ABORT_THREAD("Abort Thread");
+
+    private final String displayName;
+
+    OutOfValues(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @param name the display name selected in the GUI (case insensitive)
+     * @return the matching behaviour, {@link #CONTINUE_WITH_LAST_VALUE} if the name is empty or unknown
+     */
+    public static OutOfValues fromString(String name) {
+        for (OutOfValues value : values()) {
+            if (value.displayName.equalsIgnoreCase(name)) {
+                return value;
+            }
+        }
+        return CONTINUE_WITH_LAST_VALUE;
+    }
+}
@@ -0,0 +1,38 @@
+package com.di.jmeter.utils;
+
+/**
+ * Batch of consecutive sequence numbers leased by a thread from the shared sequential cursor of a file.
+ * <p>
+ * A lease is confined to the thread owning it, only renewing it touches the shared cursor,
+ * so the contention on the cursor drops by the size of the batch.
+ */
+public class RowLease {
+
+    private final int size;
+    private long next;
+    private long end;
+
+    /**
+     * @param size - number of rows leased at once (at least 1)
+     */
+    public RowLease(int size) {
+        this.size = Math.max(1, size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    boolean isExhausted() {
+        return next >= end;
+    }
+
+    void renew(long first) {
+        next = first;
+        end = first + size;
+    }
+
+    long next() {
+        return next++;
+    }
+}
@@ -0,0 +1,128 @@
+package com.di.jmeter.utils;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Splits a row into its values according to the delimiter and quoting settings of a dataset.
+ */
+public final class RowParser {
+
+    private static final char QUOTING_CHAR = '"';
+
+    private final String delimiter;
+    private final boolean quotedData;
+
+    /**
+     * @param delimiter - the delimiter of the values (only the first character is used for quoted data)
+     * @param quotedData - true if values may be quoted
+     */
+    public RowParser(String delimiter, boolean quotedData) {
+        this.delimiter = delimiter;
+        this.quotedData = quotedData;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public boolean isQuotedData() {
+        return quotedData;
+    }
+
+    /**
+     * @param line the row to split
+     * @return the values of the row
+     * @throws IOException for unexpected quote characters
+     */
+    public String[] parse(String line) throws IOException {
+        return parse(line, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Splits only the leading values of a row, the rest of the row is neither scanned nor copied.
+     *
+     * @param line the row to split
+     * @param limit - maximum number of values to return
+     * @return the first values of the row, at most limit
+     * @throws IOException for unexpected quote characters
+     */
+    public String[] parse(String line, int limit) throws IOException {
+        CsvTokenizer tokenizer = CsvTokenizer.forCurrentThread();
+        int count = quotedData
+                ? tokenizer.tokenize(line, delimiter.charAt(0), limit)
+                : tokenizer.split(line, delimiter, limit);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = tokenizer.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Splits a row up to its last projected column, and builds the values of the projected columns only.
+     *
+     * @param line the row to split
+     * @param projection the columns to return
+     * @return the values of the projected columns, null for the columns past the end of the row
+     * @throws IOException for unexpected quote characters
+     */
+    public String[] parse(String line, ColumnProjection projection) throws IOException {
+        CsvTokenizer tokenizer = CsvTokenizer.forCurrentThread();
+        int limit = projection.getLimit();
+        int count = quotedData
+                ? tokenizer.tokenize(line, delimiter.charAt(0), limit)
+                : tokenizer.split(line, delimiter, limit);
+        String[] values = new String[projection.size()];
+        for (int i = 0; i < values.length; i++) {
+            int column = projection.getColumn(i);
+            values[i] = column < count ? tokenizer.get(column) : null;
+        }
+        return values;
+    }
+
+    /**
+     * Joins values back into a row which parses to the same values.
+     *
+     * @param values the values of the row
+     * @return the row
+     */
+    public String format(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(quotedData ? delimiter.substring(0, 1) : delimiter);
+            }
+            String value = values[i];
+            if (quotedData && (value.indexOf(QUOTING_CHAR) >= 0 || value.indexOf(delimiter.charAt(0)) >= 0
+                    || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)) {
+                sb.append(QUOTING_CHAR).append(value.replace("\"", "\"\"")).append(QUOTING_CHAR);
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RowParser)) {
+            return false;
+        }
+        RowParser that = (RowParser) o;
+        return quotedData == that.quotedData && delimiter.equals(that.delimiter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(delimiter, quotedData);
+    }
+
+    @Override
+    public String toString() {
+        return "delimiter=" + delimiter + ",quoted=" + quotedData;
+    }
+}
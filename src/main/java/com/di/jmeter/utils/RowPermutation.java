@@ -0,0 +1,76 @@
+package com.di.jmeter.utils;
+
+/**
+ * Seeded pseudo-random permutation of the row numbers 0 to size - 1, computed instead of stored.
+ * <p>
+ * A balanced Feistel network shuffles the smallest domain of 2^(2k) values covering the rows, positions
+ * falling outside of the rows are walked through the network again until they land on a row (cycle walking).
+ * The result is a bijection over the rows, so visiting the positions 0 to size - 1 visits each row exactly
+ * once, with constant memory whatever the number of rows.
+ */
+public final class RowPermutation {
+
+    private static final int ROUNDS = 4;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long size;
+    private final long seed;
+    private final int halfBits;
+    private final long halfMask;
+
+    /**
+     * @param size - number of rows to permute
+     * @param seed - seed of the order, the same seed gives the same order
+     */
+    public RowPermutation(long size, long seed) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative size: " + size);
+        }
+        this.size = size;
+        this.seed = seed;
+        int bits = size <= 1 ? 1 : 64 - Long.numberOfLeadingZeros(size - 1);
+        this.halfBits = (bits + 1) >>> 1;
+        this.halfMask = (1L << halfBits) - 1;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @param index - position in the visiting order (0 to size - 1)
+     * @param pass - number of the pass over the rows, each pass visits the rows in another order
+     * @return the row visited at the position
+     */
+    public long apply(long index, long pass) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size + " rows");
+        }
+        long key = mix(seed + pass * GOLDEN_GAMMA);
+        long x = index;
+        do {
+            x = encrypt(x, key);
+        } while (x >= size);
+        return x;
+    }
+
+    private long encrypt(long x, long key) {
+        long left = x >>> halfBits;
+        long right = x & halfMask;
+        for (int round = 0; round < ROUNDS; round++) {
+            long next = left ^ (mix(right + key + round * GOLDEN_GAMMA) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreads every input bit over the whole output.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
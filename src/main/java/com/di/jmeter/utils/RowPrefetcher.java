@@ -0,0 +1,131 @@
+package com.di.jmeter.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and splits the rows of a sequential dataset ahead of demand.
+ * <p>
+ * A single background thread pulls the rows from the shared cursor of the dataset and puts their values
+ * in a bounded ring buffer, so the threads of the test only dequeue rows which are already parsed,
+ * and a slow read of the file does not show up in the time of the samplers.
+ */
+final class RowPrefetcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(RowPrefetcher.class);
+
+    // marks the end of the rows, put back in the queue so every consumer sees it
+    private static final String[] END = new String[0];
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    @FunctionalInterface
+    interface RowSource {
+        /**
+         * @return the values of the next row, null at the end of the rows
+         * @throws IOException when reading of the file fails
+         */
+        String[] next() throws IOException;
+    }
+
+    private final BlockingQueue<String[]> queue;
+    private final RowSource source;
+    private final Thread producer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * @param name - name of the dataset, used to name the producer thread
+     * @param capacity - number of rows read ahead
+     * @param source - reads the rows in sequence
+     */
+    RowPrefetcher(String name, int capacity, RowSource source) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.source = source;
+        this.producer = new Thread(this::produce, "ExtendedCsv-prefetch-" + name);
+        this.producer.setDaemon(true);
+    }
+
+    void start() {
+        producer.start();
+    }
+
+    private void produce() {
+        try {
+            String[] values;
+            while (!closed && (values = source.next()) != null) {
+                while (!queue.offer(values, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Read ahead of {} failed : {}", producer.getName(), e.toString());
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.offer(END);
+            return;
+        }
+        // waits for the consumers to make room when the queue is full at the end of the rows,
+        // a closed prefetcher puts the marker itself
+        try {
+            while (!queue.offer(END, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the next row read ahead.
+     *
+     * @return the values of the next row, null at the end of the rows
+     * @throws IOException when the read ahead failed or the wait was interrupted
+     */
+    String[] take() throws IOException {
+        String[] values;
+        try {
+            values = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + producer.getName());
+        }
+        if (values != END) {
+            return values;
+        }
+        queue.offer(END);
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the producer and waits for it, so it no longer touches the cursor of the dataset.
+     * The producer is never interrupted, an interrupt would close the file channel it reads from.
+     * Threads still waiting for a row get the end of the rows.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        queue.offer(END);
+    }
+}
@@ -0,0 +1,58 @@
+package com.di.jmeter.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Random access to the rows (lines) of a reserved file.
+ * <p>
+ * Implementations are built once per reserved file and must allow concurrent
+ * calls to {@link #getRow(int)} from several threads.
+ */
+public interface RowStore extends Closeable {
+
+    /**
+     * @return number of rows in the store
+     */
+    int size();
+
+    /**
+     * @param row - row number (starts from 0)
+     * @return the row without its line terminator
+     * @throws IOException when reading of the underlying file fails
+     */
+    String getRow(int row) throws IOException;
+
+    /**
+     * @param row - row number (starts from 0)
+     * @param parser the parser splitting the row into values
+     * @return the values of the row
+     * @throws IOException when reading or parsing of the row fails
+     */
+    default String[] getValues(int row, RowParser parser) throws IOException {
+        return parser.parse(getRow(row));
+    }
+
+    /**
+     * @param row - row number (starts from 0)
+     * @param parser the parser splitting the row into values
+     * @param projection the columns to return
+     * @return the values of the projected columns, null for the columns past the end of the row
+     * @throws IOException when reading or parsing of the row fails
+     */
+    default String[] getValues(int row, RowParser parser, ColumnProjection projection) throws IOException {
+        return parser.parse(getRow(row), projection);
+    }
+
+    /**
+     * @param row - row number (starts from 0)
+     * @param column - column number (starts from 0)
+     * @param parser the parser splitting the row into values
+     * @return the value of the column, null if the row has fewer values
+     * @throws IOException when reading or parsing of the row fails
+     */
+    default String getValue(int row, int column, RowParser parser) throws IOException {
+        String[] values = parser.parse(getRow(row), column + 1);
+        return column < values.length ? values[column] : null;
+    }
+}
@@ -0,0 +1,91 @@
+package com.di.jmeter.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only channel of a file shared by all the threads reading a row store.
+ * <p>
+ * A thread interrupted during a read closes a {@link FileChannel} for every thread using it, and JMeter interrupts
+ * the samplers when a test stops. The reads defer the interrupt of the calling thread until they complete,
+ * and a channel closed by the interrupt of another thread is reopened, so the dataset stays readable.
+ */
+final class SharedFileChannel implements Closeable {
+
+    private final Path path;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+
+    SharedFileChannel(File file) throws IOException {
+        this.path = file.toPath();
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads bytes from the given position, without changing the position of the channel.
+     *
+     * @param buffer the buffer receiving the bytes
+     * @param position the position in the file
+     * @return the number of bytes read, 0 if the channel was reopened meanwhile, -1 at the end of the file
+     * @throws IOException when reading of the file fails or the store was closed
+     */
+    int read(ByteBuffer buffer, long position) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        FileChannel current = channel;
+        try {
+            return current.read(buffer, position);
+        } catch (ClosedChannelException e) {
+            reopen(current, e);
+            // the caller reads again from the position of the buffer, which may have moved
+            return 0;
+        } finally {
+            if (Thread.interrupted() || interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the current size of the file
+     * @throws IOException when the size cannot be read or the store was closed
+     */
+    long size() throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                FileChannel current = channel;
+                try {
+                    return current.size();
+                } catch (ClosedChannelException e) {
+                    reopen(current, e);
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void reopen(FileChannel failed, ClosedChannelException cause) throws IOException {
+        if (closed) {
+            throw cause;
+        }
+        if (channel == failed) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
@@ -0,0 +1,42 @@
+package com.di.jmeter.utils;
+
+/**
+ * Read engines available to serve the rows of a reserved file.
+ */
+public enum StorageMode {
+    /** Preload files under the size threshold, index the larger ones */
+    AUTO("Auto"),
+    /** Line offset index with positional reads of the file channel */
+    INDEXED("Indexed"),
+    /** Line offset index over memory mapped segments of the file */
+    MAPPED("Memory Mapped"),
+    /** Whole file parsed in memory at start, kept column by column */
+    PRELOAD("Preload"),
+    /** Raw rows and offset table copied to direct memory, outside of the heap */
+    OFF_HEAP("Off-Heap"),
+    /** Line offset index grown with the lines appended to the file while the test runs */
+    FOLLOW("Follow");
+
+    private final String displayName;
+
+    StorageMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @param name the display name selected in the GUI (case insensitive)
+     * @return the matching storage mode, {@link #AUTO} if the name is empty or unknown
+     */
+    public static StorageMode fromString(String name) {
+        for (StorageMode mode : values()) {
+            if (mode.displayName.equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return AUTO;
+    }
+}
@@ -0,0 +1,202 @@
+package com.di.jmeter.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves the rows of a file which is still being appended, for the Follow storage mode.
+ * <p>
+ * The line offset index grows with the file: readers asking for a row past the last indexed one wait on a
+ * condition, and every poll interval one of them checks the size of the file and indexes the appended bytes only,
+ * from where the previous scan stopped. A line is indexed once its line feed is written, so a row being written
+ * is never served half way. Rows are fetched with positional reads, the index is read without locking.
+ */
+final class TailRowStore implements RowStore {
+
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final byte LF = '\n';
+
+    private final File file;
+    private final Charset charset;
+    private final SharedFileChannel channel;
+    private final long pollNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // guarded by the lock
+    private final LineIndex.BareCrScan lineEnds = new LineIndex.BareCrScan();
+    // offsets[i] is the start of line i, offsets[size] the end of the last complete line
+    private volatile long[] offsets = new long[1024];
+    private volatile int size;
+    // bytes of the file scanned so far, past the last line feed when a line is being written; guarded by the lock
+    private long scanned;
+    private volatile boolean stopped;
+
+    private TailRowStore(File file, Charset charset, long dataStart, long pollMillis) throws IOException {
+        this.file = file;
+        this.charset = charset;
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, pollMillis));
+        this.channel = new SharedFileChannel(file);
+        this.offsets[0] = dataStart;
+        this.scanned = dataStart;
+    }
+
+    /**
+     * Indexes the complete lines of the file, the following ones are indexed when a reader waits for them.
+     *
+     * @param file the file to follow
+     * @param charset the charset of the file, a line feed must be a single byte in it
+     * @param skipBom - true to exclude an UTF-8 byte order mark from the first line
+     * @param pollMillis - time (ms) between two checks of the size of the file while readers wait
+     * @return the store of the file
+     * @throws IOException when reading of the file fails
+     */
+    static TailRowStore open(File file, Charset charset, boolean skipBom, long pollMillis) throws IOException {
+        long dataStart = skipBom && LineIndex.startsWithUtf8Bom(file) ? LineIndex.UTF8_BOM_LENGTH : 0;
+        TailRowStore store = new TailRowStore(file, charset, dataStart, pollMillis);
+        store.lock.lock();
+        try {
+            store.scan();
+        } catch (IOException | RuntimeException e) {
+            store.channel.close();
+            throw e;
+        } finally {
+            store.lock.unlock();
+        }
+        return store;
+    }
+
+    /**
+     * Indexes the lines completed since the previous scan. Caller must hold the lock.
+     *
+     * @return true if new lines were indexed
+     */
+    private boolean scan() throws IOException {
+        long end = channel.size();
+        long[] starts = offsets;
+        int count = size;
+        while (scanned < end) {
+            ((Buffer) scanBuffer).clear();
+            ((Buffer) scanBuffer).limit((int) Math.min(SCAN_BUFFER_SIZE, end - scanned));
+            int read = channel.read(scanBuffer, scanned);
+            if (read < 0) {
+                break;
+            }
+            byte[] bytes = scanBuffer.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == LF) {
+                    if (count + 1 == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length << 1);
+                    }
+                    starts[++count] = scanned + i + 1;
+                }
+            }
+            lineEnds.scan(scanBuffer, 0, read);
+            scanned += read;
+        }
+        if (count == size) {
+            return false;
+        }
+        // the offsets are written before the size, readers seeing the new size see its offsets
+        offsets = starts;
+        size = count;
+        return true;
+    }
+
+    /**
+     * Waits until the row is written, checking the size of the file every poll interval.
+     *
+     * @param row - row number (starts from 0)
+     * @param timeoutNanos - longest time to wait
+     * @return true if the row can be read, false if it was not written within the timeout or the store stopped
+     * @throws IOException when reading of the file fails or the wait was interrupted
+     */
+    boolean awaitRow(long row, long timeoutNanos) throws IOException {
+        if (row < size) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        lock.lock();
+        try {
+            while (row >= size && !stopped) {
+                if (scan()) {
+                    appended.signalAll();
+                    continue;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                appended.awaitNanos(Math.min(left, pollNanos));
+            }
+            return row < size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for row " + row + " of " + file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops following the file, the waiting readers get the rows indexed so far.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if a line indexed so far ends with a CR which is not followed by a LF, the lines are then only
+     * split correctly by the readers (a CR ending the bytes written so far may still be followed by a LF)
+     */
+    boolean hasBareCr() {
+        lock.lock();
+        try {
+            return lineEnds.found();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getRow(int row) throws IOException {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+        }
+        long[] starts = offsets;
+        long start = starts[row];
+        ByteBuffer buffer = ByteBuffer.allocate((int) (starts[row + 1] - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return LineIndex.decode(buffer.array(), 0, buffer.position(), charset);
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        channel.close();
+    }
+}
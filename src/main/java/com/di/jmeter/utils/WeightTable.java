@@ -0,0 +1,86 @@
+package com.di.jmeter.utils;
+
+import java.util.Random;
+
+/**
+ * Alias method table drawing rows with a probability proportional to their weight.
+ * <p>
+ * The table is built once (Vose's algorithm) into two primitive arrays of one entry per row, after which
+ * a draw costs one uniform row pick and one coin flip, without locking and whatever the weights.
+ */
+public final class WeightTable {
+
+    // probability of keeping the picked row instead of its alias
+    private final double[] probability;
+    private final int[] alias;
+
+    private WeightTable(double[] probability, int[] alias) {
+        this.probability = probability;
+        this.alias = alias;
+    }
+
+    /**
+     * @param weights - weight of each row, negative weights are not allowed
+     * @param rows - number of rows, the weights past it are ignored
+     * @return the table of the rows
+     * @throws IllegalArgumentException when a weight is negative, or no row has a weight
+     */
+    public static WeightTable build(double[] weights, int rows) {
+        double total = 0;
+        for (int i = 0; i < rows; i++) {
+            if (weights[i] < 0 || Double.isNaN(weights[i])) {
+                throw new IllegalArgumentException("Invalid weight " + weights[i] + " at row " + i);
+            }
+            total += weights[i];
+        }
+        if (rows == 0 || total <= 0 || Double.isInfinite(total)) {
+            throw new IllegalArgumentException("Weights must add up to a positive number, got " + total);
+        }
+        double[] probability = new double[rows];
+        int[] alias = new int[rows];
+        // rows under the average weight are stacked from the start of the work list, the other ones from its end
+        int[] work = new int[rows];
+        int small = 0;
+        int large = rows;
+        for (int i = 0; i < rows; i++) {
+            probability[i] = weights[i] * rows / total;
+            if (probability[i] < 1) {
+                work[small++] = i;
+            } else {
+                work[--large] = i;
+            }
+        }
+        while (small > 0 && large < rows) {
+            int less = work[--small];
+            int more = work[large++];
+            alias[less] = more;
+            probability[more] = (probability[more] + probability[less]) - 1;
+            if (probability[more] < 1) {
+                work[small++] = more;
+            } else {
+                work[--large] = more;
+            }
+        }
+        // what is left is only off by rounding errors
+        while (large < rows) {
+            probability[work[large++]] = 1;
+        }
+        while (small > 0) {
+            probability[work[--small]] = 1;
+        }
+        return new WeightTable(probability, alias);
+    }
+
+    public int size() {
+        return probability.length;
+    }
+
+    /**
+     * @param random the random generator of the calling thread
+     * @return the drawn row (starts from 0)
+     */
+    public int pick(Random random) {
+        int row = random.nextInt(probability.length);
+        return random.nextDouble() < probability[row] ? row : alias[row];
+    }
+}
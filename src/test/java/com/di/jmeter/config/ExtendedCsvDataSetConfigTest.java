@@ -0,0 +1,160 @@
+package com.di.jmeter.config;
+
+import com.di.jmeter.utils.FileServerExtended;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives the element as JMeter does: testStarted on every element of the plan, then the iterations of the threads.
+ */
+public class ExtendedCsvDataSetConfigTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FileServerExtended fileServer = FileServerExtended.getFileServer();
+    private JMeterVariables variables;
+
+    @BeforeClass
+    public static void loadProperties() throws IOException {
+        // the header line is split by CSVSaveService, which reads the JMeter properties
+        File properties = File.createTempFile("jmeter", ".properties");
+        properties.deleteOnExit();
+        JMeterUtils.loadJMeterProperties(properties.getPath());
+    }
+
+    @Before
+    public void setUp() {
+        variables = new JMeterVariables();
+        JMeterContextService.getContext().setVariables(variables);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileServer.closeFiles();
+    }
+
+    @Test
+    public void laterElementStartsOnceAnEarlierDatasetIsPrepared() throws IOException {
+        ExtendedCsvDataSetConfig users = element(csv("users.csv", "user\nann\nbob\n"), "user");
+        ExtendedCsvDataSetConfig items = element(csv("items.csv", "item\npen\ncup\n"), "item");
+
+        users.testStarted();
+        // waits for the preparation, which leaves the row store of users.csv open
+        users.iterationStart(null);
+        items.testStarted();
+        items.iterationStart(null);
+
+        assertEquals("ann", variables.get("user"));
+        assertEquals("pen", variables.get("item"));
+    }
+
+    @Test
+    public void preparationInFlightKeepsItsEntry() throws Exception {
+        String users = csv("users.csv", "ann\nbob\ncid\n");
+        fileServer.setBasedir(folder.getRoot().getPath());
+        CountDownLatch reserved = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        CompletableFuture<Void> preparation = fileServer.prepare("users", () -> {
+            fileServer.reserveFile(users, "UTF-8", users, false);
+            reserved.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            fileServer.calculateRowCount(users, false);
+        });
+        reserved.await();
+        // the same base is set by every element of the plan
+        fileServer.setBasedir(folder.getRoot().getPath());
+        try {
+            fileServer.setBasedir(folder.newFolder().getPath());
+            fail("The base changed under a running preparation");
+        } catch (IllegalStateException e) {
+            // expected, the entry of the preparation is kept
+        }
+        resume.countDown();
+        preparation.join();
+        assertEquals(3, fileServer.getDataset(users).getRowCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failedPreparationIsPreparedAgainByTheThreads() throws IOException {
+        ExtendedCsvDataSetConfig element = element(csv("weights.csv", "id,weight\n1,heavy\n2,light\n"), "weights");
+        element.setSelectRow("Weighted Random");
+        element.setWeightColumn("weight");
+        element.testStarted();
+        // the thread does not wait forever for the failed preparation, it fails the same way on its own
+        element.iterationStart(null);
+    }
+
+    @Test
+    public void variablesBindColumnsByHeaderNameNumberOrPosition() throws IOException {
+        ExtendedCsvDataSetConfig accounts = element(csv("accounts.csv",
+                "id,password,email\n7,s3cret,ann@example.org\n8,hunter2,bob@example.org\n"), "accounts");
+        accounts.setVariableNames("user=email, pass=1");
+        accounts.setIgnoreFirstLine(true);
+        ExtendedCsvDataSetConfig codes = element(csv("codes.csv", "A1;ignored;10\nB2;ignored;20\n"), "codes");
+        codes.setVariableNames("code,-,amount");
+        codes.setDelimiter(";");
+
+        accounts.testStarted();
+        codes.testStarted();
+        accounts.iterationStart(null);
+        codes.iterationStart(null);
+        assertEquals("ann@example.org", variables.get("user"));
+        assertEquals("s3cret", variables.get("pass"));
+        assertNull(variables.get("id"));
+        assertEquals("A1", variables.get("code"));
+        assertEquals("10", variables.get("amount"));
+        assertNull(variables.get("-"));
+
+        accounts.iterationStart(null);
+        codes.iterationStart(null);
+        assertEquals("bob@example.org", variables.get("user"));
+        assertEquals("20", variables.get("amount"));
+    }
+
+    private String csv(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private static ExtendedCsvDataSetConfig element(String filename, String header) {
+        ExtendedCsvDataSetConfig element = new ExtendedCsvDataSetConfig();
+        element.setName(header);
+        element.setFilename(filename);
+        element.setFileEncoding("UTF-8");
+        element.setVariableNames("");
+        element.setIgnoreFirstLine(false);
+        element.setDelimiter(",");
+        element.setQuotedData(false);
+        element.setSelectRow("Sequential");
+        element.setUpdateValue("Each Iteration");
+        element.setOoValue("Continue Cyclic");
+        element.setShareMode("All threads");
+        element.setAutoAllocate(true);
+        element.setStorageMode("Auto");
+        return element;
+    }
+}
@@ -0,0 +1,45 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelRowStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void interruptedReaderKeepsTheChannelOpen() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "a,1\nb,2\n".getBytes(StandardCharsets.UTF_8));
+        try (ChannelRowStore store = new ChannelRowStore(file, LineIndex.build(file), StandardCharsets.UTF_8)) {
+            Thread.currentThread().interrupt();
+            try {
+                assertEquals("a,1", store.getRow(0));
+                assertTrue("The interrupt is kept for the caller", Thread.currentThread().isInterrupted());
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals("b,2", store.getRow(1));
+        }
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void closedStoreIsNotReopened() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "a\n".getBytes(StandardCharsets.UTF_8));
+        ChannelRowStore store = new ChannelRowStore(file, LineIndex.build(file), StandardCharsets.UTF_8);
+        store.close();
+        store.getRow(0);
+    }
+}
@@ -0,0 +1,89 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong leased = new AtomicLong();
+
+    @Test(timeout = 10000)
+    public void cursorMovedByTheRowThresholdIsWrittenBeforeTheInterval() throws Exception {
+        File file = new File(folder.getRoot(), "orders.csv.checkpoint");
+        CheckpointWriter writer = new CheckpointWriter(60_000, 100);
+        try {
+            CheckpointWriter.Sidecar sidecar = sidecar(file, "orders|v1");
+            writer.add(sidecar);
+            sequence.set(99);
+            leased.set(100);
+            writer.moved(sidecar);
+            while (!file.exists()) {
+                Thread.sleep(5);
+            }
+            assertArrayEquals(new long[]{99, 100}, sidecar(file, "orders|v1").read());
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void closeAndRemoveWriteTheLastPositions() throws IOException {
+        File closed = new File(folder.getRoot(), "a.checkpoint");
+        File removed = new File(folder.getRoot(), "b.checkpoint");
+        CheckpointWriter writer = new CheckpointWriter(60_000, 1_000_000);
+        CheckpointWriter.Sidecar kept = sidecar(closed, "a");
+        AtomicLong other = new AtomicLong(42);
+        CheckpointWriter.Sidecar dropped = new CheckpointWriter.Sidecar(removed, "b", other::get, () -> 0, () -> 0);
+        writer.add(kept);
+        writer.add(dropped);
+        sequence.set(3);
+        leased.set(64);
+
+        writer.remove(dropped);
+        assertArrayEquals(new long[]{42, 0}, new CheckpointWriter.Sidecar(removed, "b", () -> 0, () -> 0, () -> 0)
+                .read());
+        // removed sidecars are no longer followed
+        other.set(43);
+        writer.close();
+        assertArrayEquals(new long[]{42, 0}, new CheckpointWriter.Sidecar(removed, "b", () -> 0, () -> 0, () -> 0)
+                .read());
+        assertArrayEquals(new long[]{3, 64}, sidecar(closed, "a").read());
+        assertFalse(new File(closed.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void checkpointOfOtherRowsIsNotResumed() throws IOException {
+        File file = new File(folder.getRoot(), "users.csv.checkpoint");
+        assertNull("no checkpoint yet", sidecar(file, "users|3 rows").read());
+
+        CheckpointWriter writer = new CheckpointWriter(60_000, 1);
+        writer.add(sidecar(file, "users|3 rows"));
+        sequence.set(2);
+        writer.close();
+        assertTrue(file.isFile());
+        assertNull(sidecar(file, "users|4 rows").read());
+
+        Files.write(file.toPath(), "fingerprint=users|3 rows\nsequence=two\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertNull("unreadable cursor", sidecar(file, "users|3 rows").read());
+    }
+
+    private CheckpointWriter.Sidecar sidecar(File file, String fingerprint) {
+        return new CheckpointWriter.Sidecar(file, fingerprint, sequence::get, leased::get, leased::get);
+    }
+}
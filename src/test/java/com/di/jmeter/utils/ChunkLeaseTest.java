@@ -0,0 +1,179 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkLeaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packKeepsBothHalves() {
+        int[] values = {0, 1, 7, 65535, 65536, Integer.MAX_VALUE};
+        for (int start : values) {
+            for (int end : values) {
+                long state = ChunkLease.pack(start, end);
+                assertEquals(start, ChunkLease.next(state));
+                assertEquals(end, ChunkLease.end(state));
+            }
+        }
+    }
+
+    @Test
+    public void nextTakesTheRowsInOrder() {
+        ChunkLease lease = new ChunkLease(4);
+        assertEquals(-1, lease.next());
+        lease.assign(10, 13);
+        assertEquals(3, lease.remaining());
+        assertEquals(10, lease.next());
+        assertEquals(11, lease.next());
+        assertEquals(12, lease.next());
+        assertEquals(-1, lease.next());
+        assertEquals(0, lease.remaining());
+    }
+
+    @Test
+    public void stealTakesTheSecondHalf() {
+        ChunkLease lease = new ChunkLease(10);
+        lease.assign(0, 10);
+        assertEquals(0, lease.next());
+        long stolen = lease.steal();
+        assertEquals(5, ChunkLease.next(stolen));
+        assertEquals(10, ChunkLease.end(stolen));
+        assertEquals(4, lease.remaining());
+        for (int row = 1; row < 5; row++) {
+            assertEquals(row, lease.next());
+        }
+        assertEquals(-1, lease.next());
+    }
+
+    @Test
+    public void stealTakesTheLastRow() {
+        ChunkLease lease = new ChunkLease(2);
+        lease.assign(4, 5);
+        long stolen = lease.steal();
+        assertEquals(4, ChunkLease.next(stolen));
+        assertEquals(5, ChunkLease.end(stolen));
+        assertEquals(-1, lease.next());
+        assertEquals(-1, lease.steal());
+    }
+
+    @Test
+    public void concurrentStealsNeverHandOutARowTwice() throws Exception {
+        int rows = 200000;
+        ChunkLease owner = new ChunkLease(rows);
+        owner.assign(0, rows);
+        assertEachRowOnce(owner, rows, 4);
+    }
+
+    @Test
+    public void leaseOfAControlSegmentSharesItsRows() throws Exception {
+        int rows = 50000;
+        ControlSegment segment = ControlSegment.open(new File(folder.getRoot(), "rows.ctl"), "run", rows, 8);
+        try {
+            int slot = segment.allocateLease();
+            assertTrue(slot >= 0);
+            ChunkLease owner = new ChunkLease(rows, segment, slot);
+            owner.assign(0, rows);
+            assertEachRowOnce(owner, rows, 3);
+            assertTrue(owner.release());
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    public void nextChunkNeverCrossesTheEndOfAPass() {
+        DatasetState dataset = new DatasetState("test", 1);
+        dataset.setRows(10, 1);
+        assertEquals(0, dataset.nextChunk(4));
+        assertEquals(4, dataset.nextChunk(4));
+        assertEquals(8, dataset.nextChunk(4));
+        // the third chunk was cut to the 2 rows left in the pass
+        assertEquals(10, dataset.nextChunk(4));
+        assertEquals(14, dataset.getLeased());
+    }
+
+    @Test
+    public void unregisterDropsAnExhaustedLocalLease() {
+        DatasetState dataset = new DatasetState("test", 1);
+        dataset.setRows(10, 1);
+        ChunkLease exhausted = dataset.register(4);
+        ChunkLease busy = dataset.register(4);
+        busy.assign(0, 4);
+        dataset.unregister(exhausted);
+        dataset.unregister(busy);
+        List<ChunkLease> left = new ArrayList<>();
+        dataset.getLeases().forEach(left::add);
+        assertEquals(1, left.size());
+        assertSame(busy, left.get(0));
+    }
+
+    /**
+     * The owner takes its rows while thieves steal from it and from each other, every row must be taken once.
+     */
+    private static void assertEachRowOnce(ChunkLease owner, int rows, int thieves) throws Exception {
+        BitSet seen = new BitSet(rows);
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> drain(owner, seen, duplicates, start)));
+        for (int i = 0; i < thieves; i++) {
+            threads.add(new Thread(() -> {
+                ChunkLease own = new ChunkLease(1);
+                await(start);
+                long stolen;
+                while ((stolen = owner.steal()) >= 0) {
+                    own.assign(ChunkLease.next(stolen), ChunkLease.end(stolen));
+                    drain(own, seen, duplicates, null);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, duplicates.get());
+        assertEquals(rows, seen.cardinality());
+        assertFalse(owner.remaining() > 0);
+    }
+
+    private static void drain(ChunkLease lease, BitSet seen, AtomicInteger duplicates, CountDownLatch start) {
+        await(start);
+        int row;
+        while ((row = lease.next()) >= 0) {
+            synchronized (seen) {
+                if (seen.get(row)) {
+                    duplicates.incrementAndGet();
+                }
+                seen.set(row);
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        if (latch == null) {
+            return;
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ControlSegmentTest {
+
+    private static final int ROWS = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void releasedSlotsAreReusedUpToTheCapacity() throws IOException {
+        ControlSegment segment = ControlSegment.open(folder.newFile(), "run", 10, 2);
+        try {
+            int first = segment.allocateLease();
+            int second = segment.allocateLease();
+            assertNotEquals(first, second);
+            assertEquals(-1, segment.allocateLease());
+            segment.releaseLease(first);
+            assertEquals(first, segment.allocateLease());
+            assertEquals(ControlSegment.firstLease() + 2, segment.leaseEnd());
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    public void fileOfAnotherRunIsReset() throws IOException {
+        File file = folder.newFile();
+        ControlSegment segment = ControlSegment.open(file, "monday", 10, 4);
+        segment.set(ControlSegment.CURSOR, 7);
+        segment.close();
+        segment = ControlSegment.open(file, "monday", 10, 4);
+        assertEquals(7, segment.get(ControlSegment.CURSOR));
+        segment.close();
+        segment = ControlSegment.open(file, "tuesday", 10, 4);
+        assertEquals(0, segment.get(ControlSegment.CURSOR));
+        segment.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void runServingOtherRowsIsRejected() throws IOException {
+        File file = folder.newFile();
+        ControlSegment.open(file, "run", 10, 4).close();
+        ControlSegment.open(file, "run", 11, 4);
+    }
+
+    @Test
+    public void ownerTakesTheClaimedRowsWithoutTouchingTheSlot() throws IOException {
+        ControlSegment segment = ControlSegment.open(folder.newFile(), "run", 100, 4);
+        try {
+            int slot = segment.allocateLease();
+            ChunkLease lease = new ChunkLease(16, segment, slot);
+            lease.assign(0, 16);
+            assertEquals(ChunkLease.pack(8, 16), segment.peek(slot));
+            for (int row = 0; row < 8; row++) {
+                assertEquals(row, lease.next());
+            }
+            assertEquals(ChunkLease.pack(8, 16), segment.peek(slot));
+            // the next claim halves the rows left in the slot
+            assertEquals(8, lease.next());
+            assertEquals(ChunkLease.pack(12, 16), segment.peek(slot));
+            assertEquals(7, lease.remaining());
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test
+    public void releasedLeaseHandsItsClaimedRowsToTheNextOwner() throws IOException {
+        ControlSegment segment = ControlSegment.open(folder.newFile(), "run", 100, 1);
+        try {
+            ChunkLease first = new ChunkLease(10, segment, segment.allocateLease());
+            first.assign(20, 30);
+            assertEquals(20, first.next());
+            assertEquals(21, first.next());
+            first.release();
+            ChunkLease second = new ChunkLease(10, segment, segment.allocateLease());
+            for (int row = 22; row < 30; row++) {
+                assertEquals(row, second.next());
+            }
+            assertEquals(-1, second.next());
+        } finally {
+            segment.close();
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void processesOfTheSameRunTakeEachRowOnce() throws Exception {
+        File control = new File(folder.getRoot(), "rows.ctl");
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        List<Process> processes = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File output = new File(folder.getRoot(), "rows" + i + ".txt");
+            outputs.add(output);
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ControlSegmentTest.class.getName(), control.getPath(), output.getPath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(folder.getRoot(), "process" + i + ".log"))
+                    .start());
+        }
+        for (Process process : processes) {
+            assertTrue(process.waitFor(100, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+        }
+        BitSet seen = new BitSet(ROWS);
+        for (File output : outputs) {
+            for (String line : Files.readAllLines(output.toPath(), StandardCharsets.UTF_8)) {
+                int row = Integer.parseInt(line);
+                assertFalse("Row " + row + " taken twice", seen.get(row));
+                seen.set(row);
+            }
+        }
+        assertEquals(ROWS, seen.cardinality());
+    }
+
+    /**
+     * One process of {@link #processesOfTheSameRunTakeEachRowOnce()}: two threads take Unique rows of the dataset
+     * shared through the control file until none is left, stealing from the other leases at the end.
+     *
+     * @param args the control file and the file listing the rows taken
+     */
+    public static void main(String[] args) throws Exception {
+        DatasetState dataset = new DatasetState("shared", 1);
+        dataset.setRows(ROWS, 0);
+        dataset.shareAcrossProcesses(new File(args[0]), "test-run");
+        dataset.mapControl();
+        List<Integer> taken = new ArrayList<>();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                ChunkLease lease = dataset.register(64);
+                int row;
+                while ((row = nextRow(dataset, lease)) >= 0) {
+                    synchronized (taken) {
+                        taken.add(row);
+                    }
+                }
+                dataset.unregister(lease);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        try (PrintWriter out = new PrintWriter(args[1], "UTF-8")) {
+            taken.forEach(out::println);
+        }
+        dataset.close();
+    }
+
+    private static int nextRow(DatasetState dataset, ChunkLease lease) {
+        int row = lease.next();
+        while (row < 0) {
+            long chunk = dataset.nextChunk(lease.getSize());
+            if (chunk < ROWS) {
+                lease.assign((int) chunk, (int) Math.min(chunk + lease.getSize(), ROWS));
+            } else if (!steal(dataset, lease)) {
+                return -1;
+            }
+            row = lease.next();
+        }
+        return row;
+    }
+
+    private static boolean steal(DatasetState dataset, ChunkLease thief) {
+        for (ChunkLease victim : dataset.getLeases()) {
+            long stolen = victim == thief ? -1 : victim.steal();
+            if (stolen >= 0) {
+                thief.assign(ChunkLease.next(stolen), ChunkLease.end(stolen));
+                return true;
+            }
+        }
+        return false;
+    }
+}
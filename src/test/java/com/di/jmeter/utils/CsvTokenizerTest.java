@@ -0,0 +1,78 @@
+package com.di.jmeter.utils;
+
+import org.apache.jorphan.util.JOrphanUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CsvTokenizerTest {
+
+    private static final String[] LINES = {
+            "", "a", "a,b,c", ",", ",,", "a,", ",a", "a,,b", " a , b ", "a,b,,,", "\u00e9,\u00fc,\u65e5\u672c"
+    };
+
+    @Test
+    public void splitMatchesJOrphanUtils() {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        for (String delimiter : new String[]{",", ";", "||"}) {
+            for (String template : LINES) {
+                String line = template.replace(",", delimiter);
+                String[] expected = JOrphanUtils.split(line, delimiter, false);
+                tokenizer.split(line, delimiter, Integer.MAX_VALUE);
+                assertArrayEquals("Line [" + line + "]", expected, fields(tokenizer));
+            }
+        }
+    }
+
+    @Test
+    public void splitStopsAtTheLimit() {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        assertEquals(2, tokenizer.split("a,b,c,d", ",", 2));
+        assertArrayEquals(new String[]{"a", "b"}, fields(tokenizer));
+    }
+
+    @Test
+    public void splitGrowsPastTheInitialCapacity() {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        StringBuilder line = new StringBuilder("0");
+        for (int i = 1; i < 100; i++) {
+            line.append(',').append(i);
+        }
+        assertEquals(100, tokenizer.split(line.toString(), ",", Integer.MAX_VALUE));
+        assertEquals("99", tokenizer.get(99));
+    }
+
+    @Test
+    public void tokenizeUnquotesFields() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        tokenizer.tokenize("\"a,b\",\"say \"\"hi\"\"\",plain,\"\"", ',', Integer.MAX_VALUE);
+        assertArrayEquals(new String[]{"a,b", "say \"hi\"", "plain", ""}, fields(tokenizer));
+    }
+
+    @Test
+    public void tokenizeMatchesCsvReadLine() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        FileServerExtended fileServer = FileServerExtended.getFileServer();
+        String[] lines = {"a,b", "\"a\",b", "a,\"b\"\"c\"", "\"\"", ",", "a,\r\n", "a\rb"};
+        for (String line : lines) {
+            tokenizer.tokenize(line, ',', Integer.MAX_VALUE);
+            assertArrayEquals("Line [" + line + "]", fileServer.csvReadLine(line, ','), fields(tokenizer));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void tokenizeRejectsAnUnterminatedQuote() throws IOException {
+        new CsvTokenizer().tokenize("\"a,b", ',', Integer.MAX_VALUE);
+    }
+
+    private static String[] fields(CsvTokenizer tokenizer) {
+        String[] fields = new String[tokenizer.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = tokenizer.get(i);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,120 @@
+package com.di.jmeter.utils;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileServerExtendedTest {
+
+    private static final int ROWS = 2000;
+    private static final int THREADS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FileServerExtended fileServer = FileServerExtended.getFileServer();
+
+    @BeforeClass
+    public static void loadProperties() throws IOException {
+        File properties = File.createTempFile("jmeter", ".properties");
+        properties.deleteOnExit();
+        JMeterUtils.loadJMeterProperties(properties.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileServer.closeFiles();
+    }
+
+    @Test(timeout = 30000)
+    public void threadsSharingAnAliasConsumeASingleCursor() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int row = 0; row < ROWS; row++) {
+            content.append(row).append(",v").append(row).append('\n');
+        }
+        String filename = write("rows.csv", content.toString());
+        for (StorageMode mode : new StorageMode[]{StorageMode.INDEXED, StorageMode.MAPPED, StorageMode.OFF_HEAP,
+                StorageMode.PRELOAD}) {
+            String alias = "shared-" + mode;
+            fileServer.reserveFile(filename, "UTF-8", alias, false, mode, new RowParser(",", false));
+            int[] served = new int[ROWS];
+            ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Future<List<Integer>>> readers = new ArrayList<>();
+                for (int thread = 0; thread < THREADS; thread++) {
+                    // leases of different sizes, some rows of a lease are past the end of the file
+                    RowLease lease = thread % 2 == 0 ? null : new RowLease(thread);
+                    readers.add(threads.submit(() -> {
+                        List<Integer> rows = new ArrayList<>();
+                        String[] values;
+                        while ((values = fileServer.readLineValues(alias, false, false, lease)) != null) {
+                            assertEquals("v" + values[0], values[1]);
+                            rows.add(Integer.parseInt(values[0]));
+                        }
+                        return rows;
+                    }));
+                }
+                for (Future<List<Integer>> reader : readers) {
+                    for (int row : reader.get()) {
+                        served[row]++;
+                    }
+                }
+            } finally {
+                threads.shutdownNow();
+            }
+            for (int row = 0; row < ROWS; row++) {
+                assertEquals(mode + " row " + row, 1, served[row]);
+            }
+        }
+    }
+
+    @Test
+    public void cursorWrapsAroundWithRecycleAndAliasesKeepTheirOwn() throws IOException {
+        String filename = write("colors.csv", "red\ngreen\nblue\n");
+        fileServer.reserveFile(filename, "UTF-8", "first", false, StorageMode.INDEXED, new RowParser(",", false));
+        fileServer.reserveFile(filename, "UTF-8", "second", false, StorageMode.INDEXED, new RowParser(",", false));
+        RowLease lease = new RowLease(2);
+        String[] expected = {"red", "green", "blue", "red", "green"};
+        for (String color : expected) {
+            assertEquals(color, fileServer.readLine("first", true, false, lease));
+        }
+        assertEquals("red", fileServer.readLine("second", false, false, null));
+    }
+
+    @Test
+    public void projectionBindsTheRequestedColumnsOnly() throws IOException {
+        String filename = write("people.csv", "ann,31,ann@example.org\nbob,27\n");
+        fileServer.reserveFile(filename, "UTF-8", "people", false, StorageMode.OFF_HEAP, new RowParser(",", false));
+        ColumnProjection projection = new ColumnProjection(new int[]{2, 0, 0});
+        assertEquals(3, projection.getLimit());
+        assertArrayEquals(new String[]{"ann@example.org", "ann", "ann"},
+                fileServer.readLineValues("people", false, false, null, projection));
+        // columns past the end of the row are left unset
+        assertArrayEquals(new String[]{null, "bob", "bob"},
+                fileServer.readLineValues("people", false, false, null, projection));
+        assertNull(fileServer.readLineValues("people", false, false, null, projection));
+    }
+
+    private String write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+}
@@ -0,0 +1,118 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GzipRowStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rowsAcrossWindowBoundaries() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // rows shorter and longer than the checkpoint size, so windows are sealed before and after it
+            rows.add(i + ":" + new String(new char[(i * 7) % 53]).replace('\0', (char) ('a' + i % 26)));
+        }
+        File file = gzip(String.join("\n", rows) + "\n");
+        for (int checkpoint : new int[]{1, 16, 32, 100, 4096}) {
+            GzipRowStore store = GzipRowStore.load(file, StandardCharsets.UTF_8, false, checkpoint);
+            assertEquals(rows.size(), store.size());
+            for (int row = 0; row < rows.size(); row++) {
+                assertEquals("Row " + row + " with checkpoints of " + checkpoint, rows.get(row), store.getRow(row));
+            }
+            store.close();
+        }
+    }
+
+    @Test
+    public void randomAccessEvictsCachedWindows() throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add("row-" + i);
+        }
+        File file = gzip(String.join("\n", rows));
+        // about one window per row, many more windows than cached ones
+        GzipRowStore store = GzipRowStore.load(file, StandardCharsets.UTF_8, false, 8);
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            int row = random.nextInt(rows.size());
+            assertEquals(rows.get(row), store.getRow(row));
+        }
+        store.close();
+    }
+
+    @Test
+    public void windowsKeptOutsideOfTheHeap() throws IOException {
+        // random digits barely compress, the windows overflow the first direct segment
+        Random random = new Random(11);
+        StringBuilder content = new StringBuilder();
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            String row = Long.toHexString(random.nextLong()) + ',' + Long.toHexString(random.nextLong());
+            rows.add(row);
+            content.append(row).append('\n');
+        }
+        File file = gzip(content.toString());
+        for (StorageMode mode : new StorageMode[]{StorageMode.OFF_HEAP, StorageMode.MAPPED}) {
+            GzipRowStore store = GzipRowStore.load(file, StandardCharsets.UTF_8, false, 512, mode);
+            assertEquals(rows.size(), store.size());
+            for (int row = rows.size() - 1; row >= 0; row -= 7) {
+                assertEquals(mode + " row " + row, rows.get(row), store.getRow(row));
+            }
+            store.close();
+        }
+        assertEquals(0, GzipRowStore.load(gzip(""), StandardCharsets.UTF_8, false, 0, StorageMode.MAPPED).size());
+    }
+
+    @Test
+    public void lastRowWithoutLineEnd() throws IOException {
+        GzipRowStore store = GzipRowStore.load(gzip("a\r\nb\r\nc"), StandardCharsets.UTF_8, false, 2);
+        assertEquals(3, store.size());
+        assertEquals("a", store.getRow(0));
+        assertEquals("b", store.getRow(1));
+        assertEquals("c", store.getRow(2));
+        assertFalse(store.hasBareCr());
+        assertTrue(GzipRowStore.load(gzip("a\r\nb\rc\n"), StandardCharsets.UTF_8, false, 2).hasBareCr());
+    }
+
+    @Test
+    public void byteOrderMarkIsExcluded() throws IOException {
+        GzipRowStore store = GzipRowStore.load(gzip("\ufeffh\n\u00e9\n"), StandardCharsets.ISO_8859_1, true, 1);
+        assertEquals(2, store.size());
+        assertEquals("h", store.getRow(0));
+        assertEquals("\u00e9", store.getRow(1));
+    }
+
+    @Test
+    public void detectsTheGzipMagic() throws IOException {
+        assertEquals(FileFormat.GZIP, FileFormat.detect(gzip("a\n")));
+        File plain = folder.newFile();
+        Files.write(plain.toPath(), "a\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(FileFormat.TEXT, FileFormat.detect(plain));
+    }
+
+    private File gzip(String content) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath()))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,170 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LineIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexesEveryLine() throws IOException {
+        File file = write("id,name\n1,a\n2,bb\r\n3,ccc");
+        LineIndex index = LineIndex.build(file);
+        assertEquals(4, index.size());
+        assertEquals(lines("id,name", "1,a", "2,bb", "3,ccc"), read(file, index, 0));
+    }
+
+    @Test
+    public void partitionsCoverEveryLineOnce() throws IOException {
+        StringBuilder content = new StringBuilder("header\n");
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // lines of varying length, so the byte boundaries fall anywhere in a line
+            String row = i + "," + new String(new char[i % 37]).replace('\0', 'x');
+            rows.add(row);
+            content.append(row).append('\n');
+        }
+        File file = write(content.toString());
+        for (int count = 1; count <= 7; count++) {
+            List<String> all = new ArrayList<>();
+            for (int node = 0; node < count; node++) {
+                LineIndex index = LineIndex.build(file, FilePartition.of(node, count), true);
+                List<String> lines = read(file, index, 0);
+                assertEquals("Header of partition " + node + "/" + count, "header", lines.get(0));
+                all.addAll(lines.subList(1, lines.size()));
+            }
+            assertEquals("Partitions of " + count, rows, all);
+        }
+    }
+
+    @Test
+    public void partitionsWithoutHeaderSplitTheHeaderLikeAnyLine() throws IOException {
+        File file = write("a\nb\nc\nd\n");
+        List<String> all = new ArrayList<>();
+        for (int node = 0; node < 3; node++) {
+            LineIndex index = LineIndex.build(file, FilePartition.of(node, 3), false);
+            all.addAll(read(file, index, 0));
+        }
+        assertEquals(lines("a", "b", "c", "d"), all);
+    }
+
+    @Test
+    public void moreNodesThanLinesLeaveSomePartitionsEmpty() throws IOException {
+        File file = write("h\n1\n2\n");
+        int total = 0;
+        for (int node = 0; node < 8; node++) {
+            LineIndex index = LineIndex.build(file, FilePartition.of(node, 8), true);
+            assertEquals("Header of partition " + node, "h", read(file, index, 0).get(0));
+            total += index.size() - 1;
+        }
+        assertEquals(2, total);
+    }
+
+    @Test
+    public void byteOrderMarkIsExcludedFromTheFirstLine() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] data = "h\n1\n2\n3\n".getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[bom.length + data.length];
+        System.arraycopy(bom, 0, content, 0, bom.length);
+        System.arraycopy(data, 0, content, bom.length, data.length);
+        File file = folder.newFile();
+        Files.write(file.toPath(), content);
+        List<String> all = new ArrayList<>();
+        for (int node = 0; node < 2; node++) {
+            LineIndex index = LineIndex.build(file, FilePartition.of(node, 2), true);
+            List<String> lines = read(file, index, 0);
+            assertEquals("h", lines.get(0));
+            all.addAll(lines.subList(1, lines.size()));
+        }
+        assertEquals(lines("1", "2", "3"), all);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnIndexPastTheCount() {
+        FilePartition.of(2, 2);
+    }
+
+    @Test
+    public void detectsBareCarriageReturns() throws IOException {
+        assertTrue(LineIndex.hasBareCr(write("a\rb\r")));
+        assertTrue(LineIndex.hasBareCr(write("a\r\nb\r")));
+        assertFalse(LineIndex.hasBareCr(write("a\r\nb\r\n")));
+        assertFalse(LineIndex.hasBareCr(write("a\nb")));
+    }
+
+    @Test
+    public void indexPassFindsBareCarriageReturnsAnywhere() throws IOException {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 3 * 1024 * 1024) {
+            content.append("row-").append(content.length()).append("\r\n");
+        }
+        File crlf = write(content.toString());
+        assertFalse(LineIndex.build(crlf).hasBareCr());
+        assertFalse(OffHeapRowStore.load(crlf, StandardCharsets.UTF_8).hasBareCr());
+        for (int node = 0; node < 3; node++) {
+            assertFalse(LineIndex.build(crlf, FilePartition.of(node, 3), true).hasBareCr());
+        }
+        // far past the head of the file, in the last partition only
+        File mac = write(content + "mac\rline\r\n");
+        assertTrue(LineIndex.build(mac).hasBareCr());
+        assertTrue(OffHeapRowStore.load(mac, StandardCharsets.UTF_8).hasBareCr());
+        assertTrue(LineIndex.hasBareCr(mac));
+        assertFalse(LineIndex.build(mac, FilePartition.of(0, 3), true).hasBareCr());
+        assertTrue(LineIndex.build(mac, FilePartition.of(2, 3), true).hasBareCr());
+    }
+
+    @Test
+    public void carriageReturnEndingAChunkIsCheckedAgainstTheNextOne() {
+        byte[] bytes = "0123456\r\n9abcdef\rx".getBytes(StandardCharsets.US_ASCII);
+        for (int cut = 0; cut <= bytes.length; cut++) {
+            LineIndex.BareCrScan lineEnds = new LineIndex.BareCrScan();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            lineEnds.scan(buffer, 0, Math.min(cut, 16));
+            lineEnds.scan(buffer, Math.min(cut, 16), 16);
+            assertFalse("CRLF cut at " + cut, lineEnds.found() || lineEnds.endsWithCr());
+            lineEnds.scan(buffer, 16, Math.max(cut, 16));
+            lineEnds.scan(buffer, Math.max(cut, 16), bytes.length);
+            assertTrue("bare CR cut at " + cut, lineEnds.found());
+        }
+    }
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> read(File file, LineIndex index, int from) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<String> lines = new ArrayList<>();
+        for (int line = from; line < index.size(); line++) {
+            int start = (int) index.start(line);
+            lines.add(LineIndex.decode(bytes, start, (int) index.end(line) - start, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static List<String> lines(String... lines) {
+        List<String> list = new ArrayList<>();
+        for (String line : lines) {
+            list.add(line);
+        }
+        return list;
+    }
+}
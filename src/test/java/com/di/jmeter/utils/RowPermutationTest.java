@@ -0,0 +1,64 @@
+package com.di.jmeter.utils;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RowPermutationTest {
+
+    @Test
+    public void visitsEveryRowOnce() {
+        for (long size : new long[]{1, 2, 3, 4, 5, 7, 16, 17, 100, 1000, 4097, 65536, 100003}) {
+            for (long pass = 0; pass < 3; pass++) {
+                RowPermutation permutation = new RowPermutation(size, 42);
+                BitSet seen = new BitSet((int) size);
+                for (long index = 0; index < size; index++) {
+                    long row = permutation.apply(index, pass);
+                    assertTrue("Row " + row + " out of " + size, row >= 0 && row < size);
+                    assertFalse("Row " + row + " visited twice out of " + size, seen.get((int) row));
+                    seen.set((int) row);
+                }
+                assertEquals(size, seen.cardinality());
+            }
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameOrder() {
+        RowPermutation first = new RowPermutation(1000, 7);
+        RowPermutation second = new RowPermutation(1000, 7);
+        for (long index = 0; index < 1000; index++) {
+            assertEquals(first.apply(index, 3), second.apply(index, 3));
+        }
+    }
+
+    @Test
+    public void passesAndSeedsChangeTheOrder() {
+        RowPermutation permutation = new RowPermutation(1000, 7);
+        assertNotEquals(order(permutation, 0), order(permutation, 1));
+        assertNotEquals(order(permutation, 0), order(new RowPermutation(1000, 8), 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsIndexPastTheRows() {
+        new RowPermutation(10, 1).apply(10, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSize() {
+        new RowPermutation(-1, 1);
+    }
+
+    private static String order(RowPermutation permutation, long pass) {
+        StringBuilder order = new StringBuilder();
+        for (long index = 0; index < permutation.size(); index++) {
+            order.append(permutation.apply(index, pass)).append(',');
+        }
+        return order.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.di.jmeter.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RowPrefetcherTest {
+
+    @Test(timeout = 10000)
+    public void endIsSeenWhenTheQueueIsFullAtTheEndOfTheRows() throws Exception {
+        CountDownLatch exhausted = new CountDownLatch(1);
+        RowPrefetcher prefetcher = new RowPrefetcher("full", 4, rows(4, exhausted));
+        prefetcher.start();
+        // the 4 rows fill the queue before anything is taken
+        assertTrue(exhausted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        for (int row = 0; row < 4; row++) {
+            assertArrayEquals(new String[]{"row" + row}, prefetcher.take());
+        }
+        assertNull(prefetcher.take());
+        // every later consumer sees the end too
+        assertNull(prefetcher.take());
+        prefetcher.close();
+    }
+
+    @Test(timeout = 10000)
+    public void consumersShareTheRowsInOrder() throws Exception {
+        RowPrefetcher prefetcher = new RowPrefetcher("order", 3, rows(1000, null));
+        prefetcher.start();
+        AtomicInteger taken = new AtomicInteger();
+        Thread[] consumers = new Thread[4];
+        boolean[] seen = new boolean[1000];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(() -> {
+                try {
+                    String[] values;
+                    while ((values = prefetcher.take()) != null) {
+                        int row = Integer.parseInt(values[0].substring(3));
+                        synchronized (seen) {
+                            assertTrue("Row taken twice " + row, !seen[row]);
+                            seen[row] = true;
+                        }
+                        taken.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            consumers[i].start();
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        assertEquals(1000, taken.get());
+        prefetcher.close();
+    }
+
+    @Test(timeout = 10000, expected = IOException.class)
+    public void failureOfTheReadIsThrownAfterTheRowsReadBefore() throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        RowPrefetcher prefetcher = new RowPrefetcher("failing", 8, () -> {
+            if (calls.getAndIncrement() == 0) {
+                return new String[]{"first"};
+            }
+            throw new IOException("disk gone");
+        });
+        prefetcher.start();
+        assertArrayEquals(new String[]{"first"}, prefetcher.take());
+        prefetcher.take();
+    }
+
+    @Test(timeout = 10000)
+    public void closeReleasesTheWaitingConsumers() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        RowPrefetcher prefetcher = new RowPrefetcher("blocked", 2, () -> {
+            try {
+                never.await(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                assertNull(prefetcher.take());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        consumer.start();
+        prefetcher.close();
+        consumer.join();
+    }
+
+    /**
+     * @return a source of the given number of rows, counting down the latch once exhausted
+     */
+    private static RowPrefetcher.RowSource rows(int count, CountDownLatch exhausted) {
+        AtomicInteger next = new AtomicInteger();
+        return () -> {
+            int row = next.getAndIncrement();
+            if (row < count) {
+                return new String[]{"row" + row};
+            }
+            if (exhausted != null) {
+                exhausted.countDown();
+            }
+            return null;
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package com.di.jmeter.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TailRowStoreTest {
+
+    private static final long POLL_MILLIS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void lineBeingWrittenIsServedOnceComplete() throws IOException {
+        File file = folder.newFile();
+        append(file, "a\nb\r\npart");
+        try (TailRowStore store = TailRowStore.open(file, StandardCharsets.UTF_8, false, POLL_MILLIS)) {
+            assertEquals(2, store.size());
+            assertEquals("b", store.getRow(1));
+            assertFalse(store.awaitRow(2, TimeUnit.MILLISECONDS.toNanos(20)));
+
+            append(file, "ial\nc\n");
+            assertTrue(store.awaitRow(3, TimeUnit.SECONDS.toNanos(5)));
+            assertEquals(4, store.size());
+            assertEquals("partial", store.getRow(2));
+            assertEquals("c", store.getRow(3));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void waitingReaderIsWokenByTheWriter() throws Exception {
+        File file = folder.newFile();
+        try (TailRowStore store = TailRowStore.open(file, StandardCharsets.UTF_8, false, POLL_MILLIS)) {
+            CompletableFuture<Boolean> reader = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return store.awaitRow(0, TimeUnit.SECONDS.toNanos(5));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(reader.isDone());
+            append(file, "first\n");
+            assertTrue(reader.get());
+            assertEquals("first", store.getRow(0));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void stopReleasesTheWaitingReaders() throws Exception {
+        File file = folder.newFile();
+        append(file, "only\n");
+        TailRowStore store = TailRowStore.open(file, StandardCharsets.UTF_8, false, POLL_MILLIS);
+        CompletableFuture<Boolean> reader = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.awaitRow(1, TimeUnit.MINUTES.toNanos(1));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        store.close();
+        assertFalse(reader.get());
+    }
+
+    @Test
+    public void byteOrderMarkIsSkippedAndBareCrReported() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'h', '\n', 'x', '\r', 'y', '\n'});
+        try (TailRowStore store = TailRowStore.open(file, StandardCharsets.UTF_8, true, POLL_MILLIS)) {
+            assertEquals("h", store.getRow(0));
+            assertTrue(store.hasBareCr());
+        }
+    }
+
+    private static void append(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,106 @@
+package com.di.jmeter.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeightTableTest {
+
+    // coin flips per picked row when walking the table
+    private static final int FLIPS = 10000;
+
+    @Test
+    public void drawsRowsInProportionToTheirWeight() {
+        assertDistribution(new double[]{1, 1, 1, 1});
+        assertDistribution(new double[]{1, 2, 3, 4});
+        assertDistribution(new double[]{0, 5, 0, 1, 0});
+        assertDistribution(new double[]{1000, 1, 1, 1, 1, 1, 1, 1});
+        assertDistribution(new double[]{0.1, 0.7, 0.15, 0.05});
+    }
+
+    @Test
+    public void ignoresWeightsPastTheRows() {
+        WeightTable table = WeightTable.build(new double[]{1, 3, 100}, 2);
+        assertEquals(2, table.size());
+        double[] frequency = walk(table);
+        assertEquals(0.25, frequency[0], 1.0 / FLIPS);
+        assertEquals(0.75, frequency[1], 1.0 / FLIPS);
+    }
+
+    @Test
+    public void drawsWithARealRandom() {
+        WeightTable table = WeightTable.build(new double[]{1, 2, 7}, 3);
+        Random random = new Random(1);
+        int[] counts = new int[3];
+        for (int i = 0; i < 100000; i++) {
+            counts[table.pick(random)]++;
+        }
+        assertEquals(0.1, counts[0] / 100000.0, 0.01);
+        assertEquals(0.2, counts[1] / 100000.0, 0.01);
+        assertEquals(0.7, counts[2] / 100000.0, 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeWeight() {
+        WeightTable.build(new double[]{1, -1}, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNaNWeight() {
+        WeightTable.build(new double[]{1, Double.NaN}, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroTotal() {
+        WeightTable.build(new double[]{0, 0}, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoRow() {
+        WeightTable.build(new double[0], 0);
+    }
+
+    private static void assertDistribution(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double[] frequency = walk(WeightTable.build(weights, weights.length));
+        for (int row = 0; row < weights.length; row++) {
+            assertEquals("Row " + row, weights[row] / total, frequency[row], 1.0 / FLIPS);
+        }
+    }
+
+    /**
+     * Picks every row of the table with evenly spread coin flips, which gives the exact probability
+     * of each row up to the spacing of the flips.
+     */
+    private static double[] walk(WeightTable table) {
+        int rows = table.size();
+        double[] frequency = new double[rows];
+        GridRandom random = new GridRandom();
+        for (random.row = 0; random.row < rows; random.row++) {
+            for (random.flip = 0; random.flip < FLIPS; random.flip++) {
+                frequency[table.pick(random)] += 1.0 / ((double) rows * FLIPS);
+            }
+        }
+        return frequency;
+    }
+
+    private static final class GridRandom extends Random {
+        private int row;
+        private int flip;
+
+        @Override
+        public int nextInt(int bound) {
+            return row;
+        }
+
+        @Override
+        public double nextDouble() {
+            return (flip + 0.5) / FLIPS;
+        }
+    }
+}